@@ -1,6 +1,8 @@
 package ru.ilezzov.moneta.lib.api;
 
+import ru.ilezzov.moneta.lib.api.model.PurchaseRequest;
 import ru.ilezzov.moneta.lib.api.model.Response;
+import ru.ilezzov.moneta.lib.api.model.SaleRequest;
 import ru.ilezzov.moneta.lib.api.model.Stats;
 import ru.ilezzov.moneta.lib.database.repository.expense.Expense;
 import ru.ilezzov.moneta.lib.database.repository.export.LastExport;
@@ -11,8 +13,11 @@ import ru.ilezzov.moneta.lib.enums.*;
 
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * Главный интерфейс для управления продуктами, продажами, покупками и расходами.
@@ -41,6 +46,25 @@ public interface FinanceManager {
      **/
     CompletableFuture<Response> addSale(final String productName, final int quantity, final Marketplace marketplace, final String comment);
 
+    /**
+     * Массово добавляет продажи одной транзакцией (через COPY в PostgreSQL) и одним запросом списывает остатки.
+     * Продажи с неизвестным товаром или неположительным количеством пропускаются.
+     * Добавленные продажи не попадают в кеш.
+     *
+     * @param sales продажи для добавления
+     * @return {@link CompletableFuture} с результатом выполнения операции
+     **/
+    CompletableFuture<Response> importSales(final List<SaleRequest> sales);
+
+    /**
+     * Добавляет несколько продаж: товары ищутся одним запросом, продажи вставляются многострочным INSERT.
+     * В отличие от {@link #importSales(List)} у продаж заполняются id и даты, и они попадают в кеш.
+     *
+     * @param sales продажи для добавления
+     * @return {@link CompletableFuture} со списком результатов, по одному на каждую продажу в том же порядке
+     **/
+    CompletableFuture<List<Response>> addSales(final List<SaleRequest> sales);
+
     /**
      * @param addToCache добавить ли полученные данные в кеш
      * @return список всех {@link Sale}
@@ -49,6 +73,24 @@ public interface FinanceManager {
 
     CompletableFuture<List<Sale>> getAllSales(final boolean addToCache, final LocalDateTime date);
 
+    /**
+     * Возвращает продажи по их ID: закешированные берутся из памяти, остальные загружаются одним запросом.
+     *
+     * @param ids идентификаторы продаж
+     * @return {@link CompletableFuture} с найденными {@link Sale} по ID, ненайденных ID в ней нет
+     **/
+    CompletableFuture<Map<Long, Sale>> getSales(final Collection<Long> ids);
+
+    /**
+     * Построчно читает продажи через курсор базы данных, не загружая их все в память и не добавляя в кеш.
+     * Поток держит соединение с базой, поэтому его нужно закрыть (try-with-resources).
+     *
+     * @param date      будут прочитаны продажи после этой даты
+     * @param fetchSize сколько строк читать из базы за один запрос
+     * @return {@link Stream} продаж {@link Sale}
+     */
+    Stream<Sale> streamSales(final LocalDateTime date, final int fetchSize);
+
     /**
      * Добавляет расход.
      *
@@ -70,6 +112,23 @@ public interface FinanceManager {
      **/
     CompletableFuture<Response> addExpense(final ExpenseCategory category, final String description, final double amount, final String comment);
 
+    /**
+     * Массово добавляет расходы одной транзакцией (через COPY в PostgreSQL).
+     * Добавленные расходы не попадают в кеш.
+     *
+     * @param expenses расходы для добавления
+     * @return {@link CompletableFuture} с результатом выполнения операции
+     **/
+    CompletableFuture<Response> importExpenses(final List<Expense> expenses);
+
+    /**
+     * Добавляет несколько расходов многострочным INSERT, заполняя их id и даты и добавляя их в кеш.
+     *
+     * @param expenses расходы для добавления
+     * @return {@link CompletableFuture} со списком результатов, по одному на каждый расход в том же порядке
+     **/
+    CompletableFuture<List<Response>> addExpenses(final List<Expense> expenses);
+
     /**
      * @param addToCache добавить ли полученные данные в кеш
      * @return список всех {@link Expense}
@@ -78,6 +137,24 @@ public interface FinanceManager {
 
     CompletableFuture<List<Expense>> getAllExpenses(final boolean addToCache, final LocalDateTime date);
 
+    /**
+     * Возвращает расходы по их ID: закешированные берутся из памяти, остальные загружаются одним запросом.
+     *
+     * @param ids идентификаторы расходов
+     * @return {@link CompletableFuture} с найденными {@link Expense} по ID, ненайденных ID в ней нет
+     **/
+    CompletableFuture<Map<Long, Expense>> getExpenses(final Collection<Long> ids);
+
+    /**
+     * Построчно читает расходы через курсор базы данных, не загружая их все в память и не добавляя в кеш.
+     * Поток держит соединение с базой, поэтому его нужно закрыть (try-with-resources).
+     *
+     * @param date      будут прочитаны расходы после этой даты
+     * @param fetchSize сколько строк читать из базы за один запрос
+     * @return {@link Stream} расходов {@link Expense}
+     */
+    Stream<Expense> streamExpenses(final LocalDateTime date, final int fetchSize);
+
     /**
      * Добавляет закупку товара.
      *
@@ -99,6 +176,25 @@ public interface FinanceManager {
      **/
     CompletableFuture<Response> addPurchase(final String productName, final int quantity, final boolean includeInSales, final String comment);
 
+    /**
+     * Массово добавляет закупки одной транзакцией (через COPY в PostgreSQL) и одним запросом пополняет остатки.
+     * Закупки с {@link PurchaseRequest#includeInExpense()} также добавляются в расходы.
+     * Закупки с неизвестным товаром или неположительным количеством пропускаются.
+     *
+     * @param purchases закупки для добавления
+     * @return {@link CompletableFuture} с результатом выполнения операции
+     **/
+    CompletableFuture<Response> importPurchases(final List<PurchaseRequest> purchases);
+
+    /**
+     * Добавляет несколько закупок: товары ищутся одним запросом, закупки и связанные расходы
+     * вставляются многострочным INSERT, заполняются их id и даты, и они попадают в кеш.
+     *
+     * @param purchases закупки для добавления
+     * @return {@link CompletableFuture} со списком результатов, по одному на каждую закупку в том же порядке
+     **/
+    CompletableFuture<List<Response>> addPurchases(final List<PurchaseRequest> purchases);
+
     /**
      * @param addToCache добавить ли полученные данные в кеш
      * @return список всех {@link Purchase}
@@ -107,6 +203,24 @@ public interface FinanceManager {
 
     CompletableFuture<List<Purchase>> getAllPurchases(final boolean addToCache, final LocalDateTime date);
 
+    /**
+     * Возвращает закупки по их ID: закешированные берутся из памяти, остальные загружаются одним запросом.
+     *
+     * @param ids идентификаторы закупок
+     * @return {@link CompletableFuture} с найденными {@link Purchase} по ID, ненайденных ID в ней нет
+     **/
+    CompletableFuture<Map<Long, Purchase>> getPurchases(final Collection<Long> ids);
+
+    /**
+     * Построчно читает закупки через курсор базы данных, не загружая их все в память и не добавляя в кеш.
+     * Поток держит соединение с базой, поэтому его нужно закрыть (try-with-resources).
+     *
+     * @param date      будут прочитаны закупки после этой даты
+     * @param fetchSize сколько строк читать из базы за один запрос
+     * @return {@link Stream} закупок {@link Purchase}
+     */
+    Stream<Purchase> streamPurchases(final LocalDateTime date, final int fetchSize);
+
     /**
      * Добавляет новый товар в каталог.
      *
@@ -138,12 +252,30 @@ public interface FinanceManager {
      **/
     CompletableFuture<Product> getProduct(final String productName);
 
+    /**
+     * Возвращает товары по их ID: закешированные берутся из памяти, остальные загружаются одним запросом.
+     *
+     * @param ids идентификаторы товаров
+     * @return {@link CompletableFuture} с найденными {@link Product} по ID, ненайденных ID в ней нет
+     **/
+    CompletableFuture<Map<Long, Product>> getProducts(final Collection<Long> ids);
+
     /**
      * @param addToCache добавить ли полученные данные в кеш
      * @return список {@link Product}
      */
     CompletableFuture<List<Product>> getAllProducts(final boolean addToCache);
 
+    /**
+     * Построчно читает все товары через курсор базы данных, не загружая их все в память и не добавляя в кеш.
+     * Поток держит соединение с базой, поэтому его нужно закрыть (try-with-resources).
+     * Остаток товаров берётся из базы: изменения, ещё не записанные учётом остатков, в него не входят.
+     *
+     * @param fetchSize сколько строк читать из базы за один запрос
+     * @return {@link Stream} товаров {@link Product}
+     */
+    Stream<Product> streamProducts(final int fetchSize);
+
 
     /**
      * Возвращает статистику за указанный месяц текущего года.
@@ -192,6 +324,14 @@ public interface FinanceManager {
      **/
     CompletableFuture<Stats> getYearSummary();
 
+    /**
+     * Пересчитывает помесячные итоги продаж и расходов по всей истории.
+     * Нужно только если данные менялись в обход триггеров, на H2 ничего не делает.
+     *
+     * @return {@link CompletableFuture} с результатом операции {@link Response}
+     **/
+    CompletableFuture<Response> rebuildStatsRollups();
+
     LastExport getLastExport();
 
     void updateLastExport(final LocalDateTime date);
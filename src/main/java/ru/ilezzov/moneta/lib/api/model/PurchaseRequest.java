@@ -0,0 +1,16 @@
+package ru.ilezzov.moneta.lib.api.model;
+
+/**
+ * A purchase to be added in bulk, see {@link ru.ilezzov.moneta.lib.api.FinanceManager#importPurchases}.
+ *
+ * @param productName      the name of the purchased product
+ * @param quantity         the number of purchased units
+ * @param includeInExpense whether to record the purchase as an expense too
+ * @param comment          the comment, {@code null} for the default one
+ */
+public record PurchaseRequest(String productName, int quantity, boolean includeInExpense, String comment) {
+
+    public PurchaseRequest(final String productName, final int quantity, final boolean includeInExpense) {
+        this(productName, quantity, includeInExpense, null);
+    }
+}
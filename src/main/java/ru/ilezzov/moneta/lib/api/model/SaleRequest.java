@@ -0,0 +1,18 @@
+package ru.ilezzov.moneta.lib.api.model;
+
+import ru.ilezzov.moneta.lib.enums.Marketplace;
+
+/**
+ * A sale to be added in bulk, see {@link ru.ilezzov.moneta.lib.api.FinanceManager#importSales}.
+ *
+ * @param productName the name of the sold product
+ * @param quantity    the number of sold units
+ * @param marketplace the marketplace the sale happened on
+ * @param comment     the comment, {@code null} for the default one
+ */
+public record SaleRequest(String productName, int quantity, Marketplace marketplace, String comment) {
+
+    public SaleRequest(final String productName, final int quantity, final Marketplace marketplace) {
+        this(productName, quantity, marketplace, null);
+    }
+}
@@ -1,7 +1,9 @@
 package ru.ilezzov.moneta.lib.core;
 
 import ru.ilezzov.moneta.lib.api.FinanceManager;
+import ru.ilezzov.moneta.lib.api.model.PurchaseRequest;
 import ru.ilezzov.moneta.lib.api.model.Response;
+import ru.ilezzov.moneta.lib.api.model.SaleRequest;
 import ru.ilezzov.moneta.lib.api.model.Stats;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
 import ru.ilezzov.moneta.lib.database.repository.expense.Expense;
@@ -16,34 +18,120 @@ import ru.ilezzov.moneta.lib.database.repository.purchase.PurchaseRepository;
 import ru.ilezzov.moneta.lib.database.repository.sale.Sale;
 import ru.ilezzov.moneta.lib.database.repository.sale.SaleRepository;
 import ru.ilezzov.moneta.lib.database.repository.sale.SaleStats;
+import ru.ilezzov.moneta.lib.database.repository.stats.PeriodStats;
+import ru.ilezzov.moneta.lib.database.repository.stats.StatsRepository;
 import ru.ilezzov.moneta.lib.enums.*;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
 
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class CoreFinanceManager implements FinanceManager {
     private final SQLDatabase database;
+    private final FinanceSettings settings;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final LaneScheduler lanes;
+    private final StatsAggregator stats;
+    private final StatsCache statsCache;
 
     private final ExpenseRepository expenseRepository;
     private final ProductRepository productRepository;
     private final PurchaseRepository purchaseRepository;
     private final SaleRepository saleRepository;
+    private final StatsRepository statsRepository;
     private final LastExportRepository lastExportRepository;
 
+    private final ScheduledExecutorService writeBehind;
+
     private final String DEFAULT_COMMENT = "———";
 
     public CoreFinanceManager(final SQLDatabase database) {
+        this(database, new FinanceSettings());
+    }
+
+    public CoreFinanceManager(final SQLDatabase database, final FinanceSettings settings) {
         this.database = database;
+        this.settings = settings;
+        if (settings.getExecutor() != null) {
+            this.executor = settings.getExecutor();
+            this.ownedExecutor = null;
+            this.lanes = null;
+        } else if (settings.isVirtualThreads()) {
+            this.ownedExecutor = ExecutorUtil.newVirtualThreadExecutor(database.getMaximumConnections());
+            this.executor = ownedExecutor;
+            this.lanes = null;
+        } else if (settings.getLanes() != null) {
+            this.lanes = new LaneScheduler(settings.getLanes());
+            this.executor = lanes.executor(Lane.WRITE);
+            this.ownedExecutor = null;
+        } else {
+            this.executor = ExecutorUtil.defaultExecutor();
+            this.ownedExecutor = null;
+            this.lanes = null;
+        }
 
-        this.expenseRepository = new ExpenseRepository(database);
-        this.productRepository = new ProductRepository(database);
-        this.purchaseRepository = new PurchaseRepository(database);
-        this.saleRepository = new SaleRepository(database);
+        if (lanes != null) {
+            this.expenseRepository = new ExpenseRepository(database, lanes);
+            this.productRepository = new ProductRepository(database, lanes, settings.getInventoryFlushIntervalMillis());
+            this.purchaseRepository = new PurchaseRepository(database, lanes);
+            this.saleRepository = new SaleRepository(database, lanes);
+            this.statsRepository = new StatsRepository(database, lanes);
+        } else {
+            this.expenseRepository = new ExpenseRepository(database, executor);
+            this.productRepository = new ProductRepository(database, executor, settings.getInventoryFlushIntervalMillis());
+            this.purchaseRepository = new PurchaseRepository(database, executor);
+            this.saleRepository = new SaleRepository(database, executor);
+            this.statsRepository = new StatsRepository(database, executor);
+        }
         this.lastExportRepository = new LastExportRepository(database);
+        this.stats = new StatsAggregator(settings.isStatsAggregation(), settings.getStatsReseedIntervalMillis());
+        this.statsCache = new StatsCache(settings.isStatsCache(), settings.getStatsCacheTtlMillis(), executor);
+
+        if (settings.getGroupCommit() != null) {
+            this.expenseRepository.enableGroupCommit(settings.getGroupCommit());
+            this.purchaseRepository.enableGroupCommit(settings.getGroupCommit());
+            this.saleRepository.enableGroupCommit(settings.getGroupCommit());
+        }
+
+        if (settings.getBatchLoading() != null) {
+            this.expenseRepository.enableBatchLoading(settings.getBatchLoading());
+            this.productRepository.enableBatchLoading(settings.getBatchLoading());
+            this.purchaseRepository.enableBatchLoading(settings.getBatchLoading());
+            this.saleRepository.enableBatchLoading(settings.getBatchLoading());
+        }
+
+        this.writeBehind = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "moneta-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writeBehind.scheduleWithFixedDelay(this::saveCachesQuietly, settings.getWriteBehindIntervalMillis(), settings.getWriteBehindIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        if (settings.isProductCatalog()) {
+            this.productRepository.enableCatalog();
+        }
+        if (settings.isProductNameFilter()) {
+            this.productRepository.enableNameFilter(settings.getProductNameMissTtlMillis());
+            this.writeBehind.scheduleWithFixedDelay(this::rebuildNameFilterQuietly, settings.getProductNameFilterRebuildIntervalMillis(), settings.getProductNameFilterRebuildIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
@@ -53,19 +141,145 @@ public class CoreFinanceManager implements FinanceManager {
 
     @Override
     public CompletableFuture<Response> addSale(final String productName, final int quantity, final Marketplace marketplace, final String comment) {
-        return productRepository.getByName(productName)
-                .thenCompose(product -> {
-                    if (product == null) {
-                        return CompletableFuture.completedFuture(Response.error("Product not found"));
-                    }
+        return stats.track(() -> {
+            if (quantity <= 0) {
+                return CompletableFuture.completedFuture(Response.error("Quantity must be positive"));
+            }
 
-                    final Sale sale = new Sale(product.getId(), productName, quantity, product.getRetailPrice(), product.getCostPrice(), marketplace, comment);
-                    product.reduceStock(quantity);
+            if (productRepository.isKnownMissing(productName)) {
+                return CompletableFuture.completedFuture(Response.error("Product not found"));
+            }
 
-                    return saleRepository.insert(sale)
-                            .thenApply(v -> Response.ok("Sale added successfully!"));
-                })
-                .exceptionally(ex -> Response.error("Failed to add sale: " + ex.getMessage()));
+            if (settings.isSingleStatementWrites()) {
+                return saleRepository.insertForProduct(productName, quantity, marketplace, comment)
+                        .thenApply(sale -> {
+                            if (sale == null) {
+                                return Response.error("Product not found");
+                            }
+
+                            productRepository.applyCachedStockDeltas(Map.of(sale.getProductId(), -quantity));
+                            recordSale(sale);
+                            return Response.ok("Sale added successfully!");
+                        })
+                        .exceptionally(ex -> Response.error("Failed to add sale: " + ex.getMessage()));
+            }
+
+            return productRepository.getByName(productName)
+                    .thenCompose(product -> {
+                        if (product == null) {
+                            return CompletableFuture.completedFuture(Response.error("Product not found"));
+                        }
+
+                        final Sale sale = new Sale(product.getId(), productName, quantity, product.getRetailPrice(), product.getCostPrice(), marketplace, comment);
+
+                        return saleRepository.insert(sale)
+                                .thenApply(v -> {
+                                    if (sale.getId() == 0) {
+                                        return Response.error("Failed to add sale");
+                                    }
+
+                                    // Остаток меняется только для записанной продажи
+                                    productRepository.getInventory().record(product, -quantity);
+                                    recordSale(sale);
+                                    return Response.ok("Sale added successfully!");
+                                });
+                    })
+                    .exceptionally(ex -> Response.error("Failed to add sale: " + ex.getMessage()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Response> importSales(final List<SaleRequest> requests) {
+        return stats.track(() -> {
+            final Set<String> names = new HashSet<>();
+            for (final SaleRequest request : requests) {
+                names.add(request.productName());
+            }
+
+            return productRepository.getByNames(names)
+                    .thenApplyAsync(products -> {
+                        final List<Sale> sales = new ArrayList<>(requests.size());
+                        final Map<Long, Integer> stockDeltas = new HashMap<>();
+
+                        for (final SaleRequest request : requests) {
+                            final Product product = products.get(request.productName());
+                            if (product == null || request.quantity() <= 0) {
+                                continue;
+                            }
+
+                            sales.add(new Sale(product.getId(), request.productName(), request.quantity(), product.getRetailPrice(), product.getCostPrice(), request.marketplace(), commentOrDefault(request.comment())));
+                            stockDeltas.merge(product.getId(), -request.quantity(), Integer::sum);
+                        }
+
+                        try {
+                            database.inTransaction(connection -> {
+                                saleRepository.bulkInsert(connection, sales);
+                                productRepository.applyStockDeltas(connection, stockDeltas);
+                                return null;
+                            });
+                        } catch (final SQLException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        productRepository.applyCachedStockDeltas(stockDeltas);
+                        // Даты продаж назначает база и обратно не читаются
+                        stats.clear();
+                        statsCache.invalidate(LocalDateTime.now());
+
+                        return Response.ok(importMessage("sales", sales.size(), requests.size()));
+                    }, executor)
+                    .exceptionally(ex -> Response.error("Failed to import sales: " + ex.getMessage()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Response>> addSales(final List<SaleRequest> requests) {
+        return stats.track(() -> {
+            final Set<String> names = new HashSet<>();
+            for (final SaleRequest request : requests) {
+                names.add(request.productName());
+            }
+
+            return productRepository.getByNames(names)
+                    .thenCompose(products -> {
+                        final List<Sale> sales = new ArrayList<>(requests.size());
+
+                        for (final SaleRequest request : requests) {
+                            final Product product = products.get(request.productName());
+                            if (product != null && request.quantity() > 0) {
+                                sales.add(new Sale(product.getId(), request.productName(), request.quantity(), product.getRetailPrice(), product.getCostPrice(), request.marketplace(), commentOrDefault(request.comment())));
+                            }
+                        }
+
+                        return saleRepository.insertAll(sales).thenApply(inserted -> {
+                            final List<Response> responses = new ArrayList<>(requests.size());
+                            int index = 0;
+
+                            for (final SaleRequest request : requests) {
+                                final Product product = products.get(request.productName());
+                                if (product == null) {
+                                    responses.add(Response.error("Product not found"));
+                                    continue;
+                                }
+                                if (request.quantity() <= 0) {
+                                    responses.add(Response.error("Quantity must be positive"));
+                                    continue;
+                                }
+
+                                final Sale sale = inserted.get(index++);
+                                if (sale.getId() == 0) {
+                                    responses.add(Response.error("Failed to add sale"));
+                                    continue;
+                                }
+
+                                productRepository.getInventory().record(product, -sale.getQuantity());
+                                recordSale(sale);
+                                responses.add(Response.ok("Sale added successfully!"));
+                            }
+                            return responses;
+                        });
+                    })
+                    .exceptionally(ex -> batchError(requests.size(), "Failed to add sale: " + ex.getMessage()));
+        });
     }
 
     @Override
@@ -78,6 +292,16 @@ public class CoreFinanceManager implements FinanceManager {
         return this.saleRepository.getAll(addToCache, date);
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Sale>> getSales(final Collection<Long> ids) {
+        return this.saleRepository.getMany(ids);
+    }
+
+    @Override
+    public Stream<Sale> streamSales(final LocalDateTime date, final int fetchSize) {
+        return this.saleRepository.stream(date, fetchSize);
+    }
+
     @Override
     public CompletableFuture<Product> getProduct(final long id) {
         return this.productRepository.get(id);
@@ -88,11 +312,21 @@ public class CoreFinanceManager implements FinanceManager {
         return this.productRepository.getByName(productName);
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Product>> getProducts(final Collection<Long> ids) {
+        return this.productRepository.getMany(ids);
+    }
+
     @Override
     public CompletableFuture<List<Product>> getAllProducts(final boolean addToCache) {
         return this.productRepository.getAll(addToCache);
     }
 
+    @Override
+    public Stream<Product> streamProducts(final int fetchSize) {
+        return this.productRepository.stream(LocalDateTime.MIN, fetchSize);
+    }
+
     @Override
     public CompletableFuture<Response> addExpense(final ExpenseCategory category, final String description, final double amount) {
         return addExpense(category, description, amount, this.DEFAULT_COMMENT);
@@ -100,11 +334,59 @@ public class CoreFinanceManager implements FinanceManager {
 
     @Override
     public CompletableFuture<Response> addExpense(final ExpenseCategory category, final String description, final double amount, final String comment) {
-        final Expense expense = new Expense(category,  description, amount, comment);
+        return stats.track(() -> {
+            final Expense expense = new Expense(category,  description, amount, comment);
+
+            return expenseRepository.insert(expense)
+                    .thenApply(v -> {
+                        recordExpense(expense);
+                        return Response.ok("Expense added successfully!");
+                    })
+                    .exceptionally(ex -> Response.error("Failed to add expense: " + ex.getMessage()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Response> importExpenses(final List<Expense> expenses) {
+        return stats.track(() -> {
+            return CompletableFuture.supplyAsync(() -> {
+                        for (final Expense expense : expenses) {
+                            expense.setComment(commentOrDefault(expense.getComment()));
+                        }
+
+                        try {
+                            database.inTransaction(connection -> expenseRepository.bulkInsert(connection, expenses));
+                        } catch (final SQLException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        stats.clear();
+                        statsCache.invalidate(LocalDateTime.now());
+
+                        return Response.ok(importMessage("expenses", expenses.size(), expenses.size()));
+                    }, executor)
+                    .exceptionally(ex -> Response.error("Failed to import expenses: " + ex.getMessage()));
+        });
+    }
 
-        return expenseRepository.insert(expense)
-                .thenApply(v -> Response.ok("Expense added successfully!"))
-                .exceptionally(ex -> Response.error("Failed to add expense: " + ex.getMessage()));
+    @Override
+    public CompletableFuture<List<Response>> addExpenses(final List<Expense> expenses) {
+        return stats.track(() -> {
+            for (final Expense expense : expenses) {
+                expense.setComment(commentOrDefault(expense.getComment()));
+            }
+
+            return expenseRepository.insertAll(expenses)
+                    .thenApply(inserted -> {
+                        final List<Response> responses = new ArrayList<>(inserted.size());
+
+                        for (final Expense expense : inserted) {
+                            recordExpense(expense);
+                            responses.add(expense.getId() == 0 ? Response.error("Failed to add expense") : Response.ok("Expense added successfully!"));
+                        }
+                        return responses;
+                    })
+                    .exceptionally(ex -> batchError(expenses.size(), "Failed to add expense: " + ex.getMessage()));
+        });
     }
 
     @Override
@@ -116,6 +398,16 @@ public class CoreFinanceManager implements FinanceManager {
         return this.expenseRepository.getAll(addToCache, date);
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Expense>> getExpenses(final Collection<Long> ids) {
+        return this.expenseRepository.getMany(ids);
+    }
+
+    @Override
+    public Stream<Expense> streamExpenses(final LocalDateTime date, final int fetchSize) {
+        return this.expenseRepository.stream(date, fetchSize);
+    }
+
     @Override
     public CompletableFuture<Response> addPurchase(final String productName, final int quantity, final boolean includeInSales) {
         return addPurchase(productName, quantity, includeInSales, this.DEFAULT_COMMENT);
@@ -123,24 +415,181 @@ public class CoreFinanceManager implements FinanceManager {
 
     @Override
     public CompletableFuture<Response> addPurchase(final String productName, final int quantity, final boolean includeInExpense, final String comment) {
-        return this.productRepository.getByName(productName)
-                .thenCompose(product -> {
-                    if (product == null) {
-                        return CompletableFuture.completedFuture(Response.error("Product not found"));
-                    }
-
-                    final Purchase purchase = new Purchase(product.getId(), productName, product.getCostPrice(), quantity, product.getSupplier(), comment);
-                    product.increaseStock(quantity);
-
-                    return purchaseRepository.insert(purchase)
-                            .thenCompose(v -> {
-                                if (includeInExpense) {
-                                    return addExpense(ExpenseCategory.PURCHASE, "Закупка товара " + productName, product.getCostPrice() * quantity, comment).thenApply(r -> Response.ok("Purchase and Expense added successfully!"));
-                                } else {
-                                    return CompletableFuture.completedFuture(Response.ok("Purchase added successfully!"));
+        return stats.track(() -> {
+            if (quantity <= 0) {
+                return CompletableFuture.completedFuture(Response.error("Quantity must be positive"));
+            }
+
+            if (productRepository.isKnownMissing(productName)) {
+                return CompletableFuture.completedFuture(Response.error("Product not found"));
+            }
+
+            if (settings.isSingleStatementWrites()) {
+                final Expense expense = includeInExpense ? new Expense(ExpenseCategory.PURCHASE, "Закупка товара " + productName, 0, comment) : null;
+
+                return purchaseRepository.insertForProduct(productName, quantity, expense, comment)
+                        .thenApply(purchase -> {
+                            if (purchase == null) {
+                                return Response.error("Product not found");
+                            }
+
+                            productRepository.applyCachedStockDeltas(Map.of(purchase.getProductId(), quantity));
+                            if (expense != null) {
+                                // Расход вставлен тем же запросом, что и закупка, значит и дата у них одна
+                                stats.recordExpense(purchase.getDate(), expense.getAmount());
+                                statsCache.invalidate(purchase.getDate());
+                            }
+                            return Response.ok(includeInExpense ? "Purchase and Expense added successfully!" : "Purchase added successfully!");
+                        })
+                        .exceptionally(ex -> Response.error("Failed to add purchase: " + ex.getMessage()));
+            }
+
+            return this.productRepository.getByName(productName)
+                    .thenCompose(product -> {
+                        if (product == null) {
+                            return CompletableFuture.completedFuture(Response.error("Product not found"));
+                        }
+
+                        final Purchase purchase = new Purchase(product.getId(), productName, product.getCostPrice(), quantity, product.getSupplier(), comment);
+
+                        return purchaseRepository.insert(purchase)
+                                .thenCompose(v -> {
+                                    if (purchase.getId() == 0) {
+                                        return CompletableFuture.completedFuture(Response.error("Failed to add purchase"));
+                                    }
+
+                                    // Остаток меняется только для записанной закупки
+                                    productRepository.getInventory().record(product, quantity);
+                                    if (includeInExpense) {
+                                        return addExpense(ExpenseCategory.PURCHASE, "Закупка товара " + productName, product.getCostPrice() * quantity, comment).thenApply(r -> Response.ok("Purchase and Expense added successfully!"));
+                                    } else {
+                                        return CompletableFuture.completedFuture(Response.ok("Purchase added successfully!"));
+                                    }
+                                });
+                    }).exceptionally(ex ->  Response.error("Failed to add purchase: " + ex.getMessage()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<Response> importPurchases(final List<PurchaseRequest> requests) {
+        return stats.track(() -> {
+            final Set<String> names = new HashSet<>();
+            for (final PurchaseRequest request : requests) {
+                names.add(request.productName());
+            }
+
+            return productRepository.getByNames(names)
+                    .thenApplyAsync(products -> {
+                        final List<Purchase> purchases = new ArrayList<>(requests.size());
+                        final List<Expense> expenses = new ArrayList<>();
+                        final Map<Long, Integer> stockDeltas = new HashMap<>();
+
+                        for (final PurchaseRequest request : requests) {
+                            final Product product = products.get(request.productName());
+                            if (product == null || request.quantity() <= 0) {
+                                continue;
+                            }
+
+                            final String comment = commentOrDefault(request.comment());
+                            purchases.add(new Purchase(product.getId(), request.productName(), product.getCostPrice(), request.quantity(), product.getSupplier(), comment));
+                            stockDeltas.merge(product.getId(), request.quantity(), Integer::sum);
+
+                            if (request.includeInExpense()) {
+                                expenses.add(new Expense(ExpenseCategory.PURCHASE, "Закупка товара " + request.productName(), product.getCostPrice() * request.quantity(), comment));
+                            }
+                        }
+
+                        try {
+                            database.inTransaction(connection -> {
+                                purchaseRepository.bulkInsert(connection, purchases);
+                                expenseRepository.bulkInsert(connection, expenses);
+                                productRepository.applyStockDeltas(connection, stockDeltas);
+                                return null;
+                            });
+                        } catch (final SQLException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        productRepository.applyCachedStockDeltas(stockDeltas);
+                        if (!expenses.isEmpty()) {
+                            stats.clear();
+                            statsCache.invalidate(LocalDateTime.now());
+                        }
+
+                        return Response.ok(importMessage("purchases", purchases.size(), requests.size()));
+                    }, executor)
+                    .exceptionally(ex -> Response.error("Failed to import purchases: " + ex.getMessage()));
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Response>> addPurchases(final List<PurchaseRequest> requests) {
+        return stats.track(() -> {
+            final Set<String> names = new HashSet<>();
+            for (final PurchaseRequest request : requests) {
+                names.add(request.productName());
+            }
+
+            return productRepository.getByNames(names)
+                    .thenCompose(products -> {
+                        final List<Purchase> purchases = new ArrayList<>(requests.size());
+
+                        for (final PurchaseRequest request : requests) {
+                            final Product product = products.get(request.productName());
+                            if (product != null && request.quantity() > 0) {
+                                purchases.add(new Purchase(product.getId(), request.productName(), product.getCostPrice(), request.quantity(), product.getSupplier(), commentOrDefault(request.comment())));
+                            }
+                        }
+
+                        return purchaseRepository.insertAll(purchases).thenCompose(inserted -> {
+                            final List<Expense> expenses = new ArrayList<>();
+                            int index = 0;
+
+                            for (final PurchaseRequest request : requests) {
+                                final Product product = products.get(request.productName());
+                                if (product == null || request.quantity() <= 0) {
+                                    continue;
+                                }
+
+                                final Purchase purchase = inserted.get(index++);
+                                if (purchase.getId() != 0 && request.includeInExpense()) {
+                                    expenses.add(new Expense(ExpenseCategory.PURCHASE, "Закупка товара " + request.productName(), purchase.getCostPrice() * purchase.getQuantity(), purchase.getComment()));
                                 }
+                            }
+
+                            return expenseRepository.insertAll(expenses).thenApply(v -> {
+                                for (final Expense expense : expenses) {
+                                    recordExpense(expense);
+                                }
+
+                                final List<Response> responses = new ArrayList<>(requests.size());
+                                int purchaseIndex = 0;
+
+                                for (final PurchaseRequest request : requests) {
+                                    final Product product = products.get(request.productName());
+                                    if (product == null) {
+                                        responses.add(Response.error("Product not found"));
+                                        continue;
+                                    }
+                                    if (request.quantity() <= 0) {
+                                        responses.add(Response.error("Quantity must be positive"));
+                                        continue;
+                                    }
+
+                                    final Purchase purchase = inserted.get(purchaseIndex++);
+                                    if (purchase.getId() == 0) {
+                                        responses.add(Response.error("Failed to add purchase"));
+                                        continue;
+                                    }
+
+                                    productRepository.getInventory().record(product, purchase.getQuantity());
+                                    responses.add(Response.ok(request.includeInExpense() ? "Purchase and Expense added successfully!" : "Purchase added successfully!"));
+                                }
+                                return responses;
                             });
-                }).exceptionally(ex ->  Response.error("Failed to add purchase: " + ex.getMessage()));
+                        });
+                    })
+                    .exceptionally(ex -> batchError(requests.size(), "Failed to add purchase: " + ex.getMessage()));
+        });
     }
 
     @Override
@@ -152,6 +601,16 @@ public class CoreFinanceManager implements FinanceManager {
         return this.purchaseRepository.getAll(addToCache, date);
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Purchase>> getPurchases(final Collection<Long> ids) {
+        return this.purchaseRepository.getMany(ids);
+    }
+
+    @Override
+    public Stream<Purchase> streamPurchases(final LocalDateTime date, final int fetchSize) {
+        return this.purchaseRepository.stream(date, fetchSize);
+    }
+
     @Override
     public CompletableFuture<Response> addProduct(final String name, final ProductCategory category, final double costPrice, final double retailPrice, final ProductUnit unit, final String supplier, final int minimum, final ProductStatus status) {
         final Product product = new Product(name, category, costPrice, retailPrice, unit, supplier, 0, minimum, status);
@@ -168,54 +627,39 @@ public class CoreFinanceManager implements FinanceManager {
         if (year == -1) {
             year = LocalDate.now().getYear();
         }
+        final int finalYear = year;
 
+        return statsCache.get(month, year, () -> loadMonthlyStats(month, finalYear));
+    }
+
+    private CompletableFuture<Stats> loadMonthlyStats(final MonthEnum month, final int year) {
         LocalDate start;
         LocalDate end;
         if (month == MonthEnum.ALL) {
             start = LocalDate.of(year, 1, 1);
-            end = LocalDate.of(year, 12, 31);
+            end = start.plusYears(1);
         } else {
             start = LocalDate.of(year, month.getMonth(), 1);
             end = start.plusMonths(1);
         }
-        final int finalYear = year;
 
-        final CompletableFuture<SaleStats> salesFuture = saleRepository.getSaleStatsByDate(start, end);
-        final CompletableFuture<ExpenseStats> expensesFuture = expenseRepository.getExpenseStatsByDate(start, end);
-
-        return salesFuture.thenCombine(expensesFuture, (saleStats, expenseStats) -> {
-            double totalTurnover;
-            double totalRevenue;
-            double totalExpenses;
-            double averageMargin;
-
-            int salesCount;
-            if (saleStats == null) {
-                totalTurnover = 0;
-                totalRevenue = 0;
-                averageMargin = 0;
-                salesCount = 0;
-            } else {
-                totalTurnover = saleStats.totalTurnover();
-                totalRevenue = saleStats.totalRevenue();
-                averageMargin = saleStats.averageMargin();
-                salesCount = saleStats.salesCount();
-            }
-
-            if (expenseStats == null) {
-                totalExpenses = 0;
-            } else {
-                totalExpenses = expenseStats.totalAmount();
-            }
-
-            double totalProfit = totalRevenue - totalExpenses;
-            double roi = totalExpenses == 0 ? 0 : (totalProfit / totalExpenses) * 100;
+        if (stats.isEnabled()) {
+            return stats.get(year, () -> loadYearTotals(year))
+                    .thenApply(totals -> toStats(month, year, totals.sales(month), totals.expenses(month)))
+                    .exceptionally(ex -> {
+                        ex.printStackTrace();
+                        return null;
+                    });
+        }
 
-            return new Stats(month, finalYear, totalTurnover, totalRevenue, totalExpenses, totalProfit, roi, averageMargin, salesCount);
-        }).exceptionally(ex -> {
-            ex.printStackTrace();
-            return null;
-        });
+        return statsRepository.getStatsByDate(start, end)
+                .thenApply(periodStats -> periodStats == null
+                        ? toStats(month, year, null, null)
+                        : toStats(month, year, periodStats.sales(), periodStats.expenses()))
+                .exceptionally(ex -> {
+                    ex.printStackTrace();
+                    return null;
+                });
     }
 
     @Override
@@ -226,28 +670,16 @@ public class CoreFinanceManager implements FinanceManager {
 
     @Override
     public CompletableFuture<List<Stats>> getYearlyStats(final int year) {
-        final CompletableFuture<List<SaleStats>> salesFuture = saleRepository.getSaleStatsGroupByMonth(year);
-        final CompletableFuture<List<ExpenseStats>> expensesFuture = expenseRepository.getExpenseStatsGroupByMonth(year);
-
-        return salesFuture.thenCombine(expensesFuture, (saleStats, expenseStats) -> {
-           final List<Stats> statsList = new ArrayList<>();
-
-           for (int i = 0; i <= 11; i++) {
-               final SaleStats saleStat = saleStats.get(i);
-               final ExpenseStats expenseStat = expenseStats.get(i);
-
-               double totalTurnover = saleStat.totalTurnover();
-               double totalRevenue = saleStat.totalRevenue();
-               double totalExpenses = expenseStat.totalAmount();
-               double totalProfit = totalRevenue - totalExpenses;
-               double roi = totalExpenses == 0 ? 0 : (totalProfit / totalExpenses) * 100;
-               double averageMargin = saleStat.averageMargin();
-               int salesCount = saleStat.salesCount();
-
-               statsList.add(new Stats(MonthEnum.parseMonth(i + 1), year, totalTurnover, totalRevenue, totalExpenses, totalProfit, roi, averageMargin, salesCount));
-           }
-           return statsList;
-        });
+        return statsCache.getYear(year, () -> loadYearlyStats(year));
+    }
+
+    private CompletableFuture<List<Stats>> loadYearlyStats(final int year) {
+        if (stats.isEnabled()) {
+            return stats.get(year, () -> loadYearTotals(year))
+                    .thenApply(totals -> toYearlyStats(year, totals.sales(), totals.expenses()));
+        }
+
+        return loadYearTotals(year).thenApply(totals -> toYearlyStats(year, totals.sales(), totals.expenses()));
     }
 
     @Override
@@ -261,6 +693,74 @@ public class CoreFinanceManager implements FinanceManager {
         return getMonthlyStats(MonthEnum.ALL, year);
     }
 
+    private CompletableFuture<StatsAggregator.YearTotals> loadYearTotals(final int year) {
+        return statsRepository.getStatsGroupByMonth(year).thenApply(months -> {
+            if (months == null) {
+                throw new IllegalStateException("Failed to load the stats of " + year);
+            }
+
+            final List<SaleStats> sales = new ArrayList<>(months.size());
+            final List<ExpenseStats> expenses = new ArrayList<>(months.size());
+            for (final PeriodStats month : months) {
+                sales.add(month.sales());
+                expenses.add(month.expenses());
+            }
+            return new StatsAggregator.YearTotals(sales, expenses);
+        });
+    }
+
+    private static Stats toStats(final MonthEnum month, final int year, final SaleStats saleStats, final ExpenseStats expenseStats) {
+        double totalTurnover;
+        double totalRevenue;
+        double totalExpenses;
+        double averageMargin;
+
+        int salesCount;
+        if (saleStats == null) {
+            totalTurnover = 0;
+            totalRevenue = 0;
+            averageMargin = 0;
+            salesCount = 0;
+        } else {
+            totalTurnover = saleStats.totalTurnover();
+            totalRevenue = saleStats.totalRevenue();
+            averageMargin = saleStats.averageMargin();
+            salesCount = saleStats.salesCount();
+        }
+
+        if (expenseStats == null) {
+            totalExpenses = 0;
+        } else {
+            totalExpenses = expenseStats.totalAmount();
+        }
+
+        double totalProfit = totalRevenue - totalExpenses;
+        double roi = totalExpenses == 0 ? 0 : (totalProfit / totalExpenses) * 100;
+
+        return new Stats(month, year, totalTurnover, totalRevenue, totalExpenses, totalProfit, roi, averageMargin, salesCount);
+    }
+
+    private static List<Stats> toYearlyStats(final int year, final List<SaleStats> saleStats, final List<ExpenseStats> expenseStats) {
+        final List<Stats> statsList = new ArrayList<>();
+
+        for (int i = 0; i <= 11; i++) {
+            statsList.add(toStats(MonthEnum.parseMonth(i + 1), year, saleStats.get(i), expenseStats.get(i)));
+        }
+        return statsList;
+    }
+
+    @Override
+    public CompletableFuture<Response> rebuildStatsRollups() {
+        return CompletableFuture.allOf(saleRepository.rebuildMonthlyRollup(), expenseRepository.rebuildMonthlyRollup())
+                .thenApply(v -> {
+                    // Пересчёт нужен после изменений в обход менеджера, их не видят и кеши статистики
+                    stats.clear();
+                    statsCache.clear();
+                    return Response.ok("Stats rollups rebuilt successfully!");
+                })
+                .exceptionally(ex -> Response.error("Failed to rebuild stats rollups: " + ex.getMessage()));
+    }
+
     @Override
     public LastExport getLastExport() {
         return this.lastExportRepository.getLastExportDate();
@@ -271,13 +771,90 @@ public class CoreFinanceManager implements FinanceManager {
         this.lastExportRepository.update(date);
     }
 
+    private void recordSale(final Sale sale) {
+        // Продажа, которую не удалось вставить, осталась без id
+        if (sale.getId() != 0) {
+            stats.recordSale(sale.getSaleDate(), sale.getTotalPrice(), sale.getMargin());
+            statsCache.invalidate(sale.getSaleDate());
+        }
+    }
+
+    private void recordExpense(final Expense expense) {
+        if (expense.getId() != 0) {
+            stats.recordExpense(expense.getDate(), expense.getAmount());
+            statsCache.invalidate(expense.getDate());
+        }
+    }
+
+    private String commentOrDefault(final String comment) {
+        return comment == null ? this.DEFAULT_COMMENT : comment;
+    }
+
+    private static List<Response> batchError(final int size, final String message) {
+        return new ArrayList<>(Collections.nCopies(size, Response.error(message)));
+    }
+
+    /**
+     * Возвращает планировщик с отдельными полосами для чтения, записи, аналитики и экспорта.
+     * Его полосу {@link Lane#EXPORT} стоит передать в {@code CoreSheetExporter}.
+     *
+     * @return планировщик или {@code null}, если полосы не включены в {@link FinanceSettings}
+     */
+    public LaneScheduler getLanes() {
+        return lanes;
+    }
+
+    private static String importMessage(final String entity, final int imported, final int requested) {
+        final int skipped = requested - imported;
+
+        if (skipped == 0) {
+            return "Imported " + imported + " " + entity + " successfully!";
+        }
+        return "Imported " + imported + " " + entity + ", skipped " + skipped + " with unknown product or invalid quantity.";
+    }
+
+    private void saveCachesQuietly() {
+        try {
+            saveCaches();
+        } catch (final RuntimeException e) {
+            // Например, очередь полосы записи переполнена — попробуем в следующий раз
+            e.printStackTrace();
+        }
+    }
+
+    private void rebuildNameFilterQuietly() {
+        try {
+            // Подхватывает товары, добавленные в обход менеджера
+            this.productRepository.rebuildNameFilter();
+        } catch (final RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveCaches() {
+        CompletableFuture.allOf(
+                this.expenseRepository.saveCache(),
+                this.productRepository.saveCache(),
+                this.purchaseRepository.saveCache(),
+                this.saleRepository.saveCache()
+        ).join();
+    }
+
     @Override
     public void close() throws SQLException {
-        this.expenseRepository.saveCache().join();
-        this.productRepository.saveCache().join();
-        this.purchaseRepository.saveCache().join();
-        this.saleRepository.saveCache().join();
-
+        this.writeBehind.shutdown();
+        this.saleRepository.disableGroupCommit();
+        this.purchaseRepository.disableGroupCommit();
+        this.expenseRepository.disableGroupCommit();
+        this.productRepository.getInventory().close();
+        saveCaches();
+
+        if (this.ownedExecutor != null) {
+            this.ownedExecutor.shutdown();
+        }
+        if (this.lanes != null) {
+            this.lanes.close();
+        }
         this.database.disconnect();
     }
 }
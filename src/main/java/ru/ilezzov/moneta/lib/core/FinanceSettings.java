@@ -0,0 +1,313 @@
+package ru.ilezzov.moneta.lib.core;
+
+import ru.ilezzov.moneta.lib.database.BatchLoaderSettings;
+import ru.ilezzov.moneta.lib.database.GroupCommitSettings;
+import ru.ilezzov.moneta.lib.utils.LaneSettings;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Optional behaviour of {@link CoreFinanceManager}. Every mode is off by default,
+ * so {@code new FinanceSettings()} keeps the classic cache-first behaviour.
+ */
+public class FinanceSettings {
+    private boolean singleStatementWrites;
+    private long inventoryFlushIntervalMillis = 200;
+    private long writeBehindIntervalMillis = 1000;
+    private GroupCommitSettings groupCommit;
+    private BatchLoaderSettings batchLoading;
+    private Executor executor;
+    private boolean virtualThreads;
+    private LaneSettings lanes;
+    private boolean statsAggregation;
+    private long statsReseedIntervalMillis = 60_000;
+    private boolean statsCache;
+    private long statsCacheTtlMillis = 30_000;
+    private boolean productCatalog;
+    private boolean productNameFilter;
+    private long productNameMissTtlMillis = 10_000;
+    private long productNameFilterRebuildIntervalMillis = 300_000;
+
+    /**
+     * @return whether {@code addSale} and {@code addPurchase} run as one SQL statement
+     */
+    public boolean isSingleStatementWrites() {
+        return singleStatementWrites;
+    }
+
+    /**
+     * Makes {@code addSale} and {@code addPurchase} resolve the product, insert the row and update the stock
+     * in a single statement on the server instead of looking the product up first and changing the stock
+     * only on the cached object. Halves the round trips per call and makes the stock change durable on commit.
+     */
+    public FinanceSettings setSingleStatementWrites(final boolean singleStatementWrites) {
+        this.singleStatementWrites = singleStatementWrites;
+        return this;
+    }
+
+    /**
+     * @return how often the recorded stock changes are written to the database
+     */
+    public long getInventoryFlushIntervalMillis() {
+        return inventoryFlushIntervalMillis;
+    }
+
+    /**
+     * Sets how often the stock changes recorded by {@code addSale} and {@code addPurchase} are coalesced
+     * into one batched update. Longer intervals mean fewer writes but a longer window of changes
+     * that are only in memory.
+     */
+    public FinanceSettings setInventoryFlushIntervalMillis(final long inventoryFlushIntervalMillis) {
+        this.inventoryFlushIntervalMillis = inventoryFlushIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @return how often the modified cached entities are written to the database
+     */
+    public long getWriteBehindIntervalMillis() {
+        return writeBehindIntervalMillis;
+    }
+
+    /**
+     * Sets how often the modified sales, purchases, expenses and products are written to the database in one batch
+     * per repository. Entities that were not modified are never written back.
+     */
+    public FinanceSettings setWriteBehindIntervalMillis(final long writeBehindIntervalMillis) {
+        this.writeBehindIntervalMillis = writeBehindIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @return the group commit settings of the sale, purchase and expense inserts, {@code null} if group commit is off
+     */
+    public GroupCommitSettings getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Makes sale, purchase and expense inserts go through a bounded queue drained by one writer per table,
+     * which inserts them in groups sharing one transaction. Amortizes the commit cost at peak load;
+     * a full queue blocks the callers and eventually rejects the insert.
+     *
+     * @param groupCommit the queue settings, {@code null} to insert every entity on its own
+     */
+    public FinanceSettings setGroupCommit(final GroupCommitSettings groupCommit) {
+        this.groupCommit = groupCommit;
+        return this;
+    }
+
+    /**
+     * @return the batching settings of the entity loads by id, {@code null} if every load runs its own query
+     */
+    public BatchLoaderSettings getBatchLoading() {
+        return batchLoading;
+    }
+
+    /**
+     * Makes the sale, purchase, expense and product lookups by id that miss the cache wait a moment for each other
+     * and load together with one {@code WHERE id = ANY(?)} query. Under bursts turns many round trips into a few,
+     * at the price of up to {@link BatchLoaderSettings#maxDelayMillis()} more latency per miss.
+     *
+     * @param batchLoading the batch settings, {@code null} to load every entity with its own query
+     */
+    public FinanceSettings setBatchLoading(final BatchLoaderSettings batchLoading) {
+        this.batchLoading = batchLoading;
+        return this;
+    }
+
+    /**
+     * @return the executor of the blocking database calls, {@code null} for the shared default one
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor that runs the blocking database calls of the manager and its repositories.
+     * By default a shared pool of {@value ru.ilezzov.moneta.lib.utils.ExecutorUtil#DEFAULT_IO_THREADS} daemon threads is used,
+     * never the common {@code ForkJoinPool}. The executor is not shut down by the manager.
+     *
+     * @param executor the executor, {@code null} for the shared default one
+     */
+    public FinanceSettings setExecutor(final Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @return whether every database call runs on its own virtual thread
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs every database call of the manager and its repositories on its own virtual thread instead of a fixed pool,
+     * so tens of thousands of calls can be in flight without tuning thread counts. A semaphore sized to
+     * {@link ru.ilezzov.moneta.lib.database.SQLDatabase#getMaximumConnections()} limits how many of them use the database at once.
+     * Requires Java 21 or newer and is ignored if an executor is set with {@link #setExecutor(Executor)}.
+     */
+    public FinanceSettings setVirtualThreads(final boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * @return the lanes of the database calls, {@code null} if all calls share one executor
+     */
+    public LaneSettings getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Splits the database calls into lanes with their own threads and bounded queues: point reads, writes
+     * and full-table reads and stats. A long export or yearly report then cannot delay {@code getProduct} or {@code addSale}.
+     * A call submitted to a full lane fails with {@link java.util.concurrent.RejectedExecutionException}.
+     * Ignored if an executor or virtual threads are set.
+     *
+     * @param lanes the lane sizes, e.g. {@link LaneSettings#forConnections(int)}, {@code null} to share one executor
+     */
+    public FinanceSettings setLanes(final LaneSettings lanes) {
+        this.lanes = lanes;
+        return this;
+    }
+
+    /**
+     * @return whether the monthly stats are kept in memory and updated by the writes of the manager
+     */
+    public boolean isStatsAggregation() {
+        return statsAggregation;
+    }
+
+    /**
+     * Keeps the monthly sale and expense totals of every year read once in memory. The sales and expenses added
+     * through the manager update them, so {@code getMonthlyStats}, {@code getYearlyStats} and {@code getYearSummary}
+     * of such a year complete at once without a database call.
+     * Changes made by other processes or through modified cached entities show up only after the year is reloaded,
+     * see {@link #setStatsReseedIntervalMillis(long)}, so enable it only if the manager is the main writer of the database.
+     */
+    public FinanceSettings setStatsAggregation(final boolean statsAggregation) {
+        this.statsAggregation = statsAggregation;
+        return this;
+    }
+
+    /**
+     * @return how long the in-memory stats of a year are used before they are loaded from the database again
+     */
+    public long getStatsReseedIntervalMillis() {
+        return statsReseedIntervalMillis;
+    }
+
+    /**
+     * Sets how long the in-memory stats of a year are used before they are loaded from the database again,
+     * which bounds how stale they get through changes the manager does not see.
+     */
+    public FinanceSettings setStatsReseedIntervalMillis(final long statsReseedIntervalMillis) {
+        this.statsReseedIntervalMillis = statsReseedIntervalMillis;
+        return this;
+    }
+
+    /**
+     * @return whether the computed monthly and yearly stats are cached
+     */
+    public boolean isStatsCache() {
+        return statsCache;
+    }
+
+    /**
+     * Caches the results of {@code getMonthlyStats}, {@code getYearlyStats} and {@code getYearSummary} per period,
+     * concurrent requests of the same period share one query. Stats of months and years that are over stay cached
+     * until a sale or expense added through the manager falls into them, stats of the current month and year expire after
+     * {@link #setStatsCacheTtlMillis(long)}. Changes made past the manager to periods that are over are seen
+     * after {@code rebuildStatsRollups}.
+     */
+    public FinanceSettings setStatsCache(final boolean statsCache) {
+        this.statsCache = statsCache;
+        return this;
+    }
+
+    /**
+     * @return how long the cached stats of the current month and year are used
+     */
+    public long getStatsCacheTtlMillis() {
+        return statsCacheTtlMillis;
+    }
+
+    /**
+     * Sets how long the cached stats of the current month and year are used, which bounds how stale they get
+     * through changes the manager does not see.
+     */
+    public FinanceSettings setStatsCacheTtlMillis(final long statsCacheTtlMillis) {
+        this.statsCacheTtlMillis = statsCacheTtlMillis;
+        return this;
+    }
+
+    /**
+     * @return whether all products are kept in memory
+     */
+    public boolean isProductCatalog() {
+        return productCatalog;
+    }
+
+    /**
+     * Loads all products into memory at start instead of caching the recently used ones for a few minutes,
+     * so the product lookups of {@code addSale}, {@code addPurchase} and {@code getProduct} complete without a database call
+     * and never wait for an expired entry. Meant for catalogs small enough to fit in memory.
+     * Changes made past the manager to known products are not seen, so enable it only if the manager is the main writer of the products.
+     */
+    public FinanceSettings setProductCatalog(final boolean productCatalog) {
+        this.productCatalog = productCatalog;
+        return this;
+    }
+
+    /**
+     * @return whether unknown product names are rejected in memory
+     */
+    public boolean isProductNameFilter() {
+        return productNameFilter;
+    }
+
+    /**
+     * Keeps a Bloom filter over all product names and remembers the names the database did not find,
+     * so {@code addSale}, {@code addPurchase} and {@code getProduct} with an unknown name fail without a database call.
+     * Products inserted or renamed past the manager are rejected until the filter is rebuilt,
+     * see {@link #setProductNameFilterRebuildIntervalMillis(long)}.
+     */
+    public FinanceSettings setProductNameFilter(final boolean productNameFilter) {
+        this.productNameFilter = productNameFilter;
+        return this;
+    }
+
+    /**
+     * @return how long a product name the database did not find is rejected without a query
+     */
+    public long getProductNameMissTtlMillis() {
+        return productNameMissTtlMillis;
+    }
+
+    /**
+     * Sets how long a product name the database did not find is rejected without a query.
+     * Only the rare unknown names the Bloom filter lets through are remembered this way.
+     */
+    public FinanceSettings setProductNameMissTtlMillis(final long productNameMissTtlMillis) {
+        this.productNameMissTtlMillis = productNameMissTtlMillis;
+        return this;
+    }
+
+    /**
+     * @return how often the product name filter is rebuilt from the database
+     */
+    public long getProductNameFilterRebuildIntervalMillis() {
+        return productNameFilterRebuildIntervalMillis;
+    }
+
+    /**
+     * Sets how often the product name filter is rebuilt from the database, which bounds how long
+     * a product inserted past the manager is rejected.
+     */
+    public FinanceSettings setProductNameFilterRebuildIntervalMillis(final long productNameFilterRebuildIntervalMillis) {
+        this.productNameFilterRebuildIntervalMillis = productNameFilterRebuildIntervalMillis;
+        return this;
+    }
+}
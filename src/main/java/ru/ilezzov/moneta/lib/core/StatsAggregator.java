@@ -0,0 +1,209 @@
+package ru.ilezzov.moneta.lib.core;
+
+import ru.ilezzov.moneta.lib.database.repository.expense.ExpenseStats;
+import ru.ilezzov.moneta.lib.database.repository.sale.SaleStats;
+import ru.ilezzov.moneta.lib.enums.MonthEnum;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the monthly sale and expense totals of the recently read years in memory, so stats of such a year
+ * are answered without a database call. A year is seeded with one grouped query when it is first read,
+ * after that the writes of the manager add their rows to its month accumulators.
+ * <p>
+ * A seed is kept only if no write of the manager ran while it was loaded, because such a write may or may not be
+ * part of the query result. Changes made past the manager, by other processes or through modified cached entities,
+ * are not seen until the year is seeded again after {@code reseedIntervalMillis}.
+ */
+final class StatsAggregator {
+    private final boolean enabled;
+    private final long reseedIntervalNanos;
+    private final Map<Integer, YearAccumulator> years = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicLong completedWrites = new AtomicLong();
+
+    StatsAggregator(final boolean enabled, final long reseedIntervalMillis) {
+        this.enabled = enabled;
+        this.reseedIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reseedIntervalMillis);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs a write of sales or expenses, marking it as in flight until its future completes.
+     * The write has to {@link #recordSale record} its rows before its future completes.
+     */
+    <T> CompletableFuture<T> track(final Supplier<CompletableFuture<T>> write) {
+        if (!enabled) {
+            return write.get();
+        }
+
+        pendingWrites.incrementAndGet();
+        final CompletableFuture<T> future;
+        try {
+            future = write.get();
+        } catch (final RuntimeException e) {
+            writeDone();
+            throw e;
+        }
+        return future.whenComplete((result, ex) -> writeDone());
+    }
+
+    private void writeDone() {
+        // Counted as completed before it stops being pending, so a running seed always notices it
+        completedWrites.incrementAndGet();
+        pendingWrites.decrementAndGet();
+    }
+
+    void recordSale(final LocalDateTime date, final double turnover, final double margin) {
+        final MonthAccumulator month = month(date);
+
+        if (month != null) {
+            month.salesCount.increment();
+            month.turnover.add(turnover);
+            month.revenue.add(margin);
+        }
+    }
+
+    void recordExpense(final LocalDateTime date, final double amount) {
+        final MonthAccumulator month = month(date);
+
+        if (month != null) {
+            month.expenses.add(amount);
+        }
+    }
+
+    /**
+     * Drops all seeded years, e.g. after a bulk import whose rows were not read back.
+     */
+    void clear() {
+        years.clear();
+    }
+
+    /**
+     * @param loader loads the totals of the year from the database, twelve months each
+     * @return the totals of the year, completed at once if the year is seeded
+     */
+    CompletableFuture<YearTotals> get(final int year, final Supplier<CompletableFuture<YearTotals>> loader) {
+        final YearAccumulator seeded = years.get(year);
+
+        if (seeded != null && System.nanoTime() - seeded.seededAt < reseedIntervalNanos) {
+            return CompletableFuture.completedFuture(seeded.totals());
+        }
+
+        final long writesBefore = completedWrites.get();
+        final boolean quiet = pendingWrites.get() == 0;
+
+        return loader.get().thenApply(totals -> {
+            if (totals.sales() == null || totals.sales().size() != 12 || totals.expenses().size() != 12) {
+                throw new IllegalStateException("Failed to load the stats of " + year);
+            }
+
+            if (quiet && pendingWrites.get() == 0 && completedWrites.get() == writesBefore) {
+                years.put(year, new YearAccumulator(totals));
+            }
+            return totals;
+        });
+    }
+
+    private MonthAccumulator month(final LocalDateTime date) {
+        if (date == null) {
+            return null;
+        }
+
+        final YearAccumulator year = years.get(date.getYear());
+        return year == null ? null : year.months[date.getMonthValue() - 1];
+    }
+
+    /**
+     * Sale and expense totals of the twelve months of a year.
+     */
+    record YearTotals(List<SaleStats> sales, List<ExpenseStats> expenses) {
+
+        /**
+         * @return the sale totals of the month, or of the whole year for {@link MonthEnum#ALL}
+         */
+        SaleStats sales(final MonthEnum month) {
+            if (month != MonthEnum.ALL) {
+                return sales.get(month.getMonth() - 1);
+            }
+
+            int count = 0;
+            double turnover = 0;
+            double revenue = 0;
+            for (final SaleStats stats : sales) {
+                count += stats.salesCount();
+                turnover += stats.totalTurnover();
+                revenue += stats.totalRevenue();
+            }
+            return new SaleStats(count, turnover, revenue, count == 0 ? 0 : revenue / count);
+        }
+
+        /**
+         * @return the expense totals of the month, or of the whole year for {@link MonthEnum#ALL}
+         */
+        ExpenseStats expenses(final MonthEnum month) {
+            if (month != MonthEnum.ALL) {
+                return expenses.get(month.getMonth() - 1);
+            }
+
+            double amount = 0;
+            for (final ExpenseStats stats : expenses) {
+                amount += stats.totalAmount();
+            }
+            return new ExpenseStats(amount);
+        }
+    }
+
+    private static final class YearAccumulator {
+        private final long seededAt = System.nanoTime();
+        private final MonthAccumulator[] months = new MonthAccumulator[12];
+
+        private YearAccumulator(final YearTotals totals) {
+            for (int i = 0; i < months.length; i++) {
+                months[i] = new MonthAccumulator(totals.sales().get(i), totals.expenses().get(i));
+            }
+        }
+
+        private YearTotals totals() {
+            final List<SaleStats> sales = new ArrayList<>(months.length);
+            final List<ExpenseStats> expenses = new ArrayList<>(months.length);
+
+            for (final MonthAccumulator month : months) {
+                final int count = month.salesCount.intValue();
+                final double revenue = month.revenue.sum();
+
+                sales.add(new SaleStats(count, month.turnover.sum(), revenue, count == 0 ? 0 : revenue / count));
+                expenses.add(new ExpenseStats(month.expenses.sum()));
+            }
+            return new YearTotals(sales, expenses);
+        }
+    }
+
+    private static final class MonthAccumulator {
+        private final LongAdder salesCount = new LongAdder();
+        private final DoubleAdder turnover = new DoubleAdder();
+        private final DoubleAdder revenue = new DoubleAdder();
+        private final DoubleAdder expenses = new DoubleAdder();
+
+        private MonthAccumulator(final SaleStats sales, final ExpenseStats expenses) {
+            this.salesCount.add(sales.salesCount());
+            this.turnover.add(sales.totalTurnover());
+            this.revenue.add(sales.totalRevenue());
+            this.expenses.add(expenses.totalAmount());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ru.ilezzov.moneta.lib.core;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import ru.ilezzov.moneta.lib.api.model.Stats;
+import ru.ilezzov.moneta.lib.enums.MonthEnum;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Caches the computed {@link Stats} of months, years and yearly reports.
+ * Concurrent requests of the same period share one load. Periods that are over never expire,
+ * the current ones expire after {@code openPeriodTtlMillis}; the writes of the manager invalidate
+ * the month they add to, together with its year.
+ */
+final class StatsCache {
+    private final boolean enabled;
+    private final AsyncCache<PeriodKey, Stats> periods;
+    private final AsyncCache<Integer, List<Stats>> years;
+
+    StatsCache(final boolean enabled, final long openPeriodTtlMillis, final Executor executor) {
+        this.enabled = enabled;
+
+        final long openPeriodTtlNanos = TimeUnit.MILLISECONDS.toNanos(openPeriodTtlMillis);
+        this.periods = Caffeine.newBuilder()
+                .executor(executor)
+                .expireAfter(new PeriodExpiry<PeriodKey, Stats>(openPeriodTtlNanos) {
+                    @Override
+                    boolean isClosed(final PeriodKey key) {
+                        return key.month() == MonthEnum.ALL
+                                ? key.year() < YearMonth.now().getYear()
+                                : YearMonth.of(key.year(), key.month().getMonth()).isBefore(YearMonth.now());
+                    }
+                })
+                .buildAsync();
+        this.years = Caffeine.newBuilder()
+                .executor(executor)
+                .expireAfter(new PeriodExpiry<Integer, List<Stats>>(openPeriodTtlNanos) {
+                    @Override
+                    boolean isClosed(final Integer year) {
+                        return year < YearMonth.now().getYear();
+                    }
+                })
+                .buildAsync();
+    }
+
+    /**
+     * @param loader computes the stats of the period, a {@code null} result is not cached
+     */
+    CompletableFuture<Stats> get(final MonthEnum month, final int year, final Supplier<CompletableFuture<Stats>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return periods.get(new PeriodKey(month, year), (key, executor) -> loader.get());
+    }
+
+    /**
+     * @param loader computes the stats of every month of the year
+     */
+    CompletableFuture<List<Stats>> getYear(final int year, final Supplier<CompletableFuture<List<Stats>>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return years.get(year, (key, executor) -> loader.get());
+    }
+
+    /**
+     * Drops the cached stats of the month of the date and of its year. A load in flight is dropped as well,
+     * so the next request reads the write.
+     */
+    void invalidate(final LocalDateTime date) {
+        if (!enabled || date == null) {
+            return;
+        }
+
+        periods.synchronous().invalidate(new PeriodKey(MonthEnum.parseMonth(date.getMonthValue()), date.getYear()));
+        periods.synchronous().invalidate(new PeriodKey(MonthEnum.ALL, date.getYear()));
+        years.synchronous().invalidate(date.getYear());
+    }
+
+    void clear() {
+        periods.synchronous().invalidateAll();
+        years.synchronous().invalidateAll();
+    }
+
+    private record PeriodKey(MonthEnum month, int year) {
+    }
+
+    /**
+     * Keeps the stats of a period that is over until they are invalidated and those of a current period for the TTL.
+     */
+    private abstract static class PeriodExpiry<K, V> implements Expiry<K, V> {
+        private final long openPeriodTtlNanos;
+
+        private PeriodExpiry(final long openPeriodTtlNanos) {
+            this.openPeriodTtlNanos = openPeriodTtlNanos;
+        }
+
+        abstract boolean isClosed(K key);
+
+        @Override
+        public long expireAfterCreate(final K key, final V value, final long currentTime) {
+            return isClosed(key) ? Long.MAX_VALUE : openPeriodTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(final K key, final V value, final long currentTime, final long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final K key, final V value, final long currentTime, final long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -14,12 +14,14 @@ import ru.ilezzov.moneta.lib.database.repository.purchase.Purchase;
 import ru.ilezzov.moneta.lib.database.repository.sale.Sale;
 import ru.ilezzov.moneta.lib.enums.MonthEnum;
 import ru.ilezzov.moneta.lib.utils.DateUtil;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static ru.ilezzov.moneta.lib.core.sheets.Formulas.*;
 import static ru.ilezzov.moneta.lib.core.sheets.Formulas.AVG_MARGIN;
@@ -31,6 +33,7 @@ public class CoreSheetExporter implements SheetExporter {
     private final FinanceManager financeManager;
     private final Sheets service;
     private final String spreadSheetId;
+    private final Executor executor;
 
     private final String financeSheet;
     private final String salesSheet;
@@ -39,20 +42,26 @@ public class CoreSheetExporter implements SheetExporter {
     private final String productSheet;
 
     public CoreSheetExporter(final FinanceManager financeManager, final Sheets service, final String spreadSheetId) {
-        this.financeManager = financeManager;
-        this.service = service;
-        this.spreadSheetId = spreadSheetId;
-        this.financeSheet = "Финансы";
-        this.salesSheet = "Продажи";
-        this.expenseSheet = "Расходы";
-        this.purchaseSheet = "Закупки";
-        this.productSheet = "Товары";
+        this(financeManager, service, spreadSheetId, ExecutorUtil.defaultExecutor());
+    }
+
+    /**
+     * @param executor runs the blocking Google Sheets calls of the export,
+     *                 e.g. the {@link ru.ilezzov.moneta.lib.enums.Lane#EXPORT} lane of {@code CoreFinanceManager.getLanes()}
+     */
+    public CoreSheetExporter(final FinanceManager financeManager, final Sheets service, final String spreadSheetId, final Executor executor) {
+        this(financeManager, service, spreadSheetId, "Финансы", "Продажи", "Расходы", "Закупки", "Товары", executor);
     }
 
     public CoreSheetExporter(final FinanceManager financeManager, final Sheets service, final String spreadSheetId, final String financeSheet, final String salesSheet, final String expenseSheet, final String purchaseSheet, final String productSheet) {
+        this(financeManager, service, spreadSheetId, financeSheet, salesSheet, expenseSheet, purchaseSheet, productSheet, ExecutorUtil.defaultExecutor());
+    }
+
+    public CoreSheetExporter(final FinanceManager financeManager, final Sheets service, final String spreadSheetId, final String financeSheet, final String salesSheet, final String expenseSheet, final String purchaseSheet, final String productSheet, final Executor executor) {
         this.financeManager = financeManager;
         this.service = service;
         this.spreadSheetId = spreadSheetId;
+        this.executor = executor;
         this.financeSheet = financeSheet;
         this.salesSheet = salesSheet;
         this.expenseSheet = expenseSheet;
@@ -62,7 +71,7 @@ public class CoreSheetExporter implements SheetExporter {
 
     @Override
     public CompletableFuture<Response> exportData(final boolean addToCache) {
-        return CompletableFuture.runAsync(() -> clearSheet(financeSheet, productSheet))
+        return CompletableFuture.runAsync(() -> clearSheet(financeSheet, productSheet), executor)
                 .thenCompose(v -> {
                     final LastExport export = this.financeManager.getLastExport();
 
@@ -93,7 +102,8 @@ public class CoreSheetExporter implements SheetExporter {
                                     e.getDescription(),
                                     e.getAmount(),
                                     e.getComment()
-                            ))
+                            )),
+                            executor
                         );
 
                         final CompletableFuture<Void> purchasesExport = CompletableFuture.runAsync(() ->
@@ -105,7 +115,8 @@ public class CoreSheetExporter implements SheetExporter {
                                     p.getTotalPrice(),
                                     p.getSupplier(),
                                     p.getComment()
-                            ))
+                            )),
+                            executor
                         );
 
                         final CompletableFuture<Void> salesExport = CompletableFuture.runAsync(() ->
@@ -119,7 +130,8 @@ public class CoreSheetExporter implements SheetExporter {
                                     s.getMargin(),
                                     s.getMarketplace().getMarketplace(),
                                     s.getComment()
-                            ))
+                            )),
+                            executor
                         );
 
                         final CompletableFuture<Void> productsExport = CompletableFuture.runAsync(() ->
@@ -134,7 +146,8 @@ public class CoreSheetExporter implements SheetExporter {
                                     p.getStock(),
                                     p.getMinimum(),
                                     p.getStatus().getStatus()
-                            ))
+                            )),
+                            executor
                         );
 
                         final CompletableFuture<Void> statsExport = CompletableFuture.runAsync(() ->
@@ -147,7 +160,8 @@ public class CoreSheetExporter implements SheetExporter {
                                     s.roi(),
                                     s.avgMargin(),
                                     s.salesCount()
-                            ))
+                            )),
+                            executor
                         );
 
                         return CompletableFuture.allOf(
@@ -156,10 +170,10 @@ public class CoreSheetExporter implements SheetExporter {
                                 productsExport,
                                 salesExport,
                                 statsExport
-                        ).thenRunAsync(this::appendResultFinance);
+                        ).thenRunAsync(this::appendResultFinance, executor);
                     }).thenRunAsync(() -> {
                         this.financeManager.updateLastExport(LocalDateTime.now());
-                    }).thenApply(v3 ->
+                    }, executor).thenApply(v3 ->
                         Response.ok("Данные экспортированы в таблицу. " +
                                 "Посмотреть — https://docs.google.com/spreadsheets/d/" + spreadSheetId)
                     );
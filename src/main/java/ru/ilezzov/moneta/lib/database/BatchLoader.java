@@ -0,0 +1,131 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the point lookups that arrive within {@link BatchLoaderSettings#maxDelayMillis()} into one query,
+ * e.g. {@code WHERE id = ANY(?)}, and completes every waiting future with its row.
+ * A batch is read as soon as it has {@link BatchLoaderSettings#maxBatchSize()} keys; lookups of a key already
+ * waiting share its future. No thread of its own is used, the batches are read on the given executor.
+ *
+ * @param <K> the key type
+ * @param <V> the row type
+ */
+public final class BatchLoader<K, V> {
+    private final BatchLoaderSettings settings;
+    private final BatchQuery<K, V> query;
+    private final Executor executor;
+    private final Executor timer;
+
+    private Map<K, CompletableFuture<V>> pending = new HashMap<>();
+
+    /**
+     * @param executor runs the batch queries
+     */
+    public BatchLoader(final BatchLoaderSettings settings, final BatchQuery<K, V> query, final Executor executor) {
+        this.settings = settings;
+        this.query = query;
+        this.executor = executor;
+        // Only hands the batch over to the executor, on the shared delay thread of CompletableFuture
+        this.timer = CompletableFuture.delayedExecutor(settings.maxDelayMillis(), TimeUnit.MILLISECONDS, Runnable::run);
+    }
+
+    /**
+     * Queues the key for the next batch.
+     *
+     * @return a future completed with the row of the key, {@code null} if there is none
+     */
+    public CompletableFuture<V> load(final K key) {
+        final CompletableFuture<V> future;
+        final Map<K, CompletableFuture<V>> full;
+        final boolean first;
+
+        synchronized (this) {
+            final CompletableFuture<V> waiting = pending.get(key);
+            if (waiting != null) {
+                return waiting;
+            }
+
+            future = new CompletableFuture<>();
+            pending.put(key, future);
+            first = pending.size() == 1;
+            full = pending.size() >= settings.maxBatchSize() ? takePending() : null;
+        }
+
+        if (full != null) {
+            dispatch(full);
+        } else if (first && settings.maxDelayMillis() == 0) {
+            try {
+                executor.execute(() -> read(takePending()));
+            } catch (final RejectedExecutionException e) {
+                fail(takePending(), e);
+            }
+        } else if (first) {
+            // Takes whatever is pending when the window closes, the window of a batch that filled up early serves the next one
+            timer.execute(() -> dispatch(takePending()));
+        }
+        return future;
+    }
+
+    private synchronized Map<K, CompletableFuture<V>> takePending() {
+        final Map<K, CompletableFuture<V>> batch = pending;
+        pending = new HashMap<>();
+        return batch;
+    }
+
+    private void dispatch(final Map<K, CompletableFuture<V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> read(batch));
+        } catch (final RejectedExecutionException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void read(final Map<K, CompletableFuture<V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            final Map<K, V> rows = query.load(new ArrayList<>(batch.keySet()));
+
+            for (final Map.Entry<K, CompletableFuture<V>> entry : batch.entrySet()) {
+                entry.getValue().complete(rows.get(entry.getKey()));
+            }
+        } catch (final SQLException | RuntimeException e) {
+            fail(batch, e);
+        }
+    }
+
+    private void fail(final Map<K, CompletableFuture<V>> batch, final Throwable e) {
+        for (final CompletableFuture<V> future : batch.values()) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Reads the rows of a batch of keys.
+     *
+     * @param <K> the key type
+     * @param <V> the row type
+     */
+    @FunctionalInterface
+    public interface BatchQuery<K, V> {
+        /**
+         * @return the found rows by key, keys without a row are absent
+         */
+        Map<K, V> load(List<K> keys) throws SQLException;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.ilezzov.moneta.lib.database;
+
+/**
+ * Settings of a {@link BatchLoader}.
+ *
+ * @param maxBatchSize   the maximum number of keys read with one query
+ * @param maxDelayMillis how long the first key of a batch waits for more keys, {@code 0} to wait only for the executor
+ */
+public record BatchLoaderSettings(int maxBatchSize, long maxDelayMillis) {
+
+    public BatchLoaderSettings {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+        }
+    }
+
+    public static BatchLoaderSettings defaults() {
+        return new BatchLoaderSettings(256, 1);
+    }
+}
@@ -0,0 +1,186 @@
+package ru.ilezzov.moneta.lib.database;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads many rows into a table on a given connection.
+ * PostgreSQL streams the rows through {@code COPY ... FROM STDIN}, other dialects fall back to a JDBC batch.
+ */
+public final class BulkInsert {
+    /**
+     * The maximum number of rows in one statement built by {@link #multiRow}.
+     * Keeps the bind parameter count well below the 65535 limit of the PostgreSQL protocol.
+     */
+    public static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private BulkInsert() {
+    }
+
+    /**
+     * Inserts the rows into the table.
+     *
+     * @param connection the connection to use, usually one from {@link SQLDatabase#inTransaction}
+     * @param dialect    the dialect of the connection
+     * @param table      the target table
+     * @param columns    the target columns, each row holds one value per column in the same order
+     * @param rows       the rows to insert
+     * @return the number of inserted rows
+     * @throws SQLException if the rows could not be inserted
+     */
+    public static long into(final Connection connection, final SQLDialect dialect, final String table,
+                            final List<String> columns, final List<Object[]> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        if (dialect == SQLDialect.POSTGRESQL) {
+            return copy(connection, table, columns, rows);
+        }
+        return batch(connection, table, columns, rows);
+    }
+
+    /**
+     * Builds a single {@code INSERT INTO table (columns) VALUES (?, ...), (?, ...)} statement for the given number of rows.
+     * Wrap it with {@link SQLDialect#returning} to read back the generated columns;
+     * the returned rows come in the order of the {@code VALUES} list.
+     *
+     * @param table   the target table
+     * @param columns the target columns
+     * @param rows    the number of rows, at most {@link #MAX_ROWS_PER_STATEMENT}
+     * @return the INSERT statement
+     */
+    public static String multiRow(final String table, final List<String> columns, final int rows) {
+        final String row = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES " + String.join(", ", Collections.nCopies(rows, row));
+    }
+
+    /**
+     * Flattens the rows into one parameter array for a {@link #multiRow} statement.
+     */
+    public static Object[] flatten(final List<Object[]> rows) {
+        final List<Object> params = new ArrayList<>();
+
+        for (final Object[] row : rows) {
+            Collections.addAll(params, row);
+        }
+        return params.toArray();
+    }
+
+    /**
+     * Inserts the rows on the given connection with {@link #multiRow} statements of up to {@link #MAX_ROWS_PER_STATEMENT} rows
+     * and passes every returned row to the mapper, in the order of the rows.
+     * The returned rows are sorted by the generated {@code id}, which grows in the order of the {@code VALUES} list.
+     *
+     * @param returning comma separated list of the columns to return, it must include {@code id}
+     * @param mapper    called once per inserted row, usually to copy the generated columns onto the entity
+     * @throws SQLException if a statement failed or did not return one row per inserted row
+     */
+    public static void insertReturning(final Connection connection, final SQLDialect dialect, final String table, final List<String> columns,
+                                       final List<Object[]> rows, final String returning, final RowMapper<?> mapper) throws SQLException {
+        for (int from = 0; from < rows.size(); from += MAX_ROWS_PER_STATEMENT) {
+            final List<Object[]> chunk = rows.subList(from, Math.min(rows.size(), from + MAX_ROWS_PER_STATEMENT));
+            final Object[] params = flatten(chunk);
+
+            // Every chunk size is a new statement, the three-argument overload keeps them out of the statement cache
+            try (final PreparedStatement ps = connection.prepareStatement(dialect.returning(multiRow(table, columns, chunk.size()), returning, "id"),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                for (int i = 0; i < params.length; i++) {
+                    ps.setObject(i + 1, params[i]);
+                }
+
+                try (final ResultSet resultSet = ps.executeQuery()) {
+                    int returned = 0;
+                    while (resultSet.next()) {
+                        if (++returned > chunk.size()) {
+                            break;
+                        }
+                        mapper.map(resultSet);
+                    }
+                    if (returned != chunk.size()) {
+                        throw new SQLException("Expected " + chunk.size() + " inserted rows in " + table + ", got " + returned);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long copy(final Connection connection, final String table,
+                             final List<String> columns, final List<Object[]> rows) throws SQLException {
+        final String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)";
+        final CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+
+        try {
+            final StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE);
+
+            for (final Object[] row : rows) {
+                appendCsvRow(buffer, row);
+
+                if (buffer.length() >= COPY_BUFFER_SIZE) {
+                    write(copyIn, buffer);
+                }
+            }
+            write(copyIn, buffer);
+
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void write(final CopyIn copyIn, final StringBuilder buffer) throws SQLException {
+        final byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    private static void appendCsvRow(final StringBuilder buffer, final Object[] row) {
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+
+            final Object value = row[i];
+            if (value == null) {
+                continue;
+            }
+
+            if (value instanceof Number || value instanceof LocalDateTime) {
+                buffer.append(value);
+            } else {
+                buffer.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+            }
+        }
+        buffer.append('\n');
+    }
+
+    private static long batch(final Connection connection, final String table,
+                              final List<String> columns, final List<Object[]> rows) throws SQLException {
+        final String sql = multiRow(table, columns, 1);
+
+        try (final PreparedStatement ps = connection.prepareStatement(sql)) {
+            for (final Object[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    ps.setObject(i + 1, row[i]);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        return rows.size();
+    }
+}
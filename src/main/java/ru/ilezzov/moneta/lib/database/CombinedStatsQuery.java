@@ -0,0 +1,102 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the {@link StatsQuery stats queries} of several tables over the same period in one round trip.
+ * The queries are joined with {@code UNION ALL} and summed per bucket; every query contributes at most one row per bucket
+ * and {@code 0} for the columns of the others, so the sum merges their aggregates into one row, whatever the aggregates are.
+ * <pre>{@code
+ * CombinedStatsQuery.of(
+ *         StatsQuery.from("sales", "sale_date").count("sales_count").between(start, end).groupBy(StatsBucket.MONTH),
+ *         StatsQuery.from("expenses", "expense_date").sum("amount", "total_amount").between(start, end).groupBy(StatsBucket.MONTH)
+ * ).buckets(database, mapper, empty);
+ * }</pre>
+ */
+public final class CombinedStatsQuery {
+    private final List<StatsQuery> queries;
+
+    private CombinedStatsQuery(final List<StatsQuery> queries) {
+        this.queries = queries;
+    }
+
+    /**
+     * @param queries the queries to combine, with the same period and buckets and distinct column aliases
+     */
+    public static CombinedStatsQuery of(final StatsQuery... queries) {
+        if (queries.length == 0) {
+            throw new IllegalArgumentException("Nothing to combine");
+        }
+
+        final StatsQuery first = queries[0];
+        for (final StatsQuery query : queries) {
+            if (!first.getStart().equals(query.getStart()) || !first.getEnd().equals(query.getEnd()) || first.getBucket() != query.getBucket()) {
+                throw new IllegalArgumentException("Combined stats queries must have the same period and buckets");
+            }
+        }
+        return new CombinedStatsQuery(Arrays.asList(queries));
+    }
+
+    public String toSql(final SQLDialect dialect) {
+        final Set<String> columnSet = new LinkedHashSet<>();
+        for (final StatsQuery query : queries) {
+            columnSet.addAll(query.aliases());
+        }
+        final List<String> columns = new ArrayList<>(columnSet);
+
+        final List<String> parts = new ArrayList<>(queries.size());
+        for (final StatsQuery query : queries) {
+            parts.add(query.select(dialect, columns));
+        }
+
+        final List<String> sums = new ArrayList<>(columns.size());
+        for (final String column : columns) {
+            sums.add("SUM(" + column + ") AS " + column);
+        }
+
+        final String from = " FROM (" + String.join(" UNION ALL ", parts) + ") AS parts";
+
+        if (queries.get(0).getBucket() == null) {
+            return "SELECT " + String.join(", ", sums) + from;
+        }
+        return "SELECT bucket, " + String.join(", ", sums) + from + " GROUP BY bucket ORDER BY bucket";
+    }
+
+    public Object[] getParameters() {
+        final List<Object> parameters = new ArrayList<>();
+
+        for (final StatsQuery query : queries) {
+            parameters.addAll(Arrays.asList(query.getParameters()));
+        }
+        return parameters.toArray();
+    }
+
+    /**
+     * Runs the combined ungrouped queries.
+     *
+     * @return the aggregates of the whole period
+     */
+    public <T> T total(final SQLDatabase database, final RowMapper<T> mapper) throws SQLException {
+        return database.queryOne(toSql(database.getDialect()), mapper, getParameters());
+    }
+
+    /**
+     * Runs the combined grouped queries.
+     *
+     * @param empty the value of a bucket without rows in any of the tables
+     * @return one value per bucket in date order, buckets without rows included
+     */
+    public <T> List<T> buckets(final SQLDatabase database, final RowMapper<T> mapper, final T empty) throws SQLException {
+        final StatsQuery first = queries.get(0);
+
+        if (first.getBucket() == null) {
+            throw new IllegalStateException("Call groupBy before buckets");
+        }
+        return StatsQuery.fillBuckets(database, toSql(database.getDialect()), getParameters(), mapper, empty, first.getBucket(), first.getStart(), first.getEnd());
+    }
+}
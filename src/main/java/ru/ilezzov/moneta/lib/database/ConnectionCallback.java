@@ -0,0 +1,14 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work executed on a single {@link Connection} inside a transaction.
+ *
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface ConnectionCallback<T> {
+    T apply(Connection connection) throws SQLException;
+}
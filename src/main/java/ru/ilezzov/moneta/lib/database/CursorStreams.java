@@ -0,0 +1,94 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helper for {@link SQLDatabase#stream} implementations.
+ */
+public final class CursorStreams {
+
+    private CursorStreams() {
+    }
+
+    /**
+     * Opens a cursor on the given connection and returns its rows as a lazy stream.
+     * The connection is owned by the stream from now on and is closed together with it.
+     *
+     * @throws SQLException if the query could not be started, the connection is closed in that case
+     */
+    public static <T> Stream<T> open(final Connection connection, final String query, final int fetchSize,
+                                     final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        PreparedStatement ps = null;
+        try {
+            // PostgreSQL only honours the fetch size inside a transaction
+            connection.setAutoCommit(false);
+
+            // The three-argument overload is never served from a statement cache, so the fetch size does not leak
+            ps = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+
+            final PreparedStatement statement = ps;
+            final ResultSet resultSet = ps.executeQuery();
+
+            return StreamSupport.stream(new RowSpliterator<>(resultSet, mapper), false)
+                    .onClose(() -> close(connection, statement, resultSet));
+        } catch (final SQLException | RuntimeException e) {
+            close(connection, ps, null);
+            throw e;
+        }
+    }
+
+    private static void close(final Connection connection, final PreparedStatement statement, final ResultSet resultSet) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            connection.rollback();
+            connection.setAutoCommit(true);
+        } catch (final SQLException ignored) {
+        } finally {
+            try {
+                connection.close();
+            } catch (final SQLException ignored) {
+            }
+        }
+    }
+
+    private static final class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final ResultSet resultSet;
+        private final RowMapper<T> mapper;
+
+        private RowSpliterator(final ResultSet resultSet, final RowMapper<T> mapper) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.resultSet = resultSet;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super T> action) {
+            try {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                action.accept(mapper.map(resultSet));
+                return true;
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of entities waiting to be inserted by a single writer thread.
+ * The writer takes the entities in groups limited by {@link GroupCommitSettings#maxGroupSize()} and
+ * {@link GroupCommitSettings#maxDelayMillis()} and inserts every group in one transaction, so many inserts share one commit.
+ * A full queue blocks the callers for up to {@link GroupCommitSettings#enqueueTimeoutMillis()} and then rejects the insert.
+ * If a group fails, its entities are retried one per transaction, so only the futures of the failing entities fail.
+ *
+ * @param <V> the entity type
+ */
+public final class GroupCommitQueue<V> implements AutoCloseable {
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final SQLDatabase database;
+    private final GroupCommitSettings settings;
+    private final GroupWriter<V> writer;
+    private final BlockingQueue<Pending<V>> queue;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    public GroupCommitQueue(final String name, final SQLDatabase database, final GroupCommitSettings settings, final GroupWriter<V> writer) {
+        this.database = database;
+        this.settings = settings;
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.thread = new Thread(this::run, "moneta-group-commit-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues the entity for insertion.
+     *
+     * @return a future completed with the entity once its group is committed, its generated columns filled in
+     */
+    public CompletableFuture<V> submit(final V value) {
+        final Pending<V> pending = new Pending<>(value, new CompletableFuture<>());
+
+        try {
+            if (!running || !queue.offer(pending, settings.enqueueTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                pending.future().completeExceptionally(new RejectedExecutionException("Write queue is full or closed"));
+            } else if (!running && queue.remove(pending)) {
+                // close() ran while the offer was blocked, the writer may have stopped and the leftovers been drained
+                pending.future().completeExceptionally(new RejectedExecutionException("Write queue is closed"));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future().completeExceptionally(e);
+        }
+        return pending.future();
+    }
+
+    /**
+     * @return the number of entities waiting for the writer
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    private void run() {
+        final List<Pending<V>> group = new ArrayList<>(settings.maxGroupSize());
+
+        while (running || !queue.isEmpty()) {
+            try {
+                final Pending<V> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                fill(group);
+            } catch (final InterruptedException e) {
+                queue.drainTo(group, settings.maxGroupSize() - group.size());
+            }
+
+            commit(group);
+            group.clear();
+        }
+    }
+
+    private void fill(final List<Pending<V>> group) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.maxDelayMillis());
+
+        while (group.size() < settings.maxGroupSize()) {
+            queue.drainTo(group, settings.maxGroupSize() - group.size());
+
+            final long remaining = deadline - System.nanoTime();
+            if (group.size() >= settings.maxGroupSize() || remaining <= 0) {
+                return;
+            }
+
+            final Pending<V> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    private void commit(final List<Pending<V>> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+
+        final List<V> values = new ArrayList<>(group.size());
+        for (final Pending<V> pending : group) {
+            values.add(pending.value());
+        }
+
+        try {
+            database.inTransaction(connection -> {
+                writer.write(connection, values);
+                return null;
+            });
+            writer.committed(values);
+        } catch (final SQLException | RuntimeException e) {
+            if (group.size() > 1) {
+                // One bad entity must not fail the unrelated ones, so the group is retried one entity per transaction
+                for (final Pending<V> pending : group) {
+                    commit(List.of(pending));
+                }
+                return;
+            }
+
+            group.get(0).future().completeExceptionally(e);
+            return;
+        }
+
+        for (final Pending<V> pending : group) {
+            pending.future().complete(pending.value());
+        }
+    }
+
+    /**
+     * Stops accepting entities and waits until the queued ones are committed.
+     * An entity offered while the queue closes is either committed by the writer or rejected, its future always completes.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Pending<V> late;
+        while ((late = queue.poll()) != null) {
+            late.future().completeExceptionally(new RejectedExecutionException("Write queue is closed"));
+        }
+    }
+
+    /**
+     * Inserts a group of entities.
+     *
+     * @param <V> the entity type
+     */
+    public interface GroupWriter<V> {
+        /**
+         * Inserts the entities on the connection of the group transaction and fills in their generated columns.
+         */
+        void write(Connection connection, List<V> values) throws SQLException;
+
+        /**
+         * Called after the group transaction committed, e.g. to cache the entities.
+         */
+        default void committed(final List<V> values) {
+        }
+    }
+
+    private record Pending<V>(V value, CompletableFuture<V> future) {
+    }
+}
@@ -0,0 +1,31 @@
+package ru.ilezzov.moneta.lib.database;
+
+/**
+ * Settings of a {@link GroupCommitQueue}.
+ *
+ * @param maxGroupSize         the maximum number of entities inserted in one transaction
+ * @param maxDelayMillis       how long the writer waits for more entities after the first one of a group arrived
+ * @param queueCapacity        how many entities may wait for the writer
+ * @param enqueueTimeoutMillis how long a caller blocks on a full queue before its insert is rejected
+ */
+public record GroupCommitSettings(int maxGroupSize, long maxDelayMillis, int queueCapacity, long enqueueTimeoutMillis) {
+
+    public GroupCommitSettings {
+        if (maxGroupSize < 1) {
+            throw new IllegalArgumentException("maxGroupSize must be positive: " + maxGroupSize);
+        }
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxDelayMillis must not be negative: " + maxDelayMillis);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        if (enqueueTimeoutMillis < 0) {
+            throw new IllegalArgumentException("enqueueTimeoutMillis must not be negative: " + enqueueTimeoutMillis);
+        }
+    }
+
+    public static GroupCommitSettings defaults() {
+        return new GroupCommitSettings(256, 5, 10_000, 1_000);
+    }
+}
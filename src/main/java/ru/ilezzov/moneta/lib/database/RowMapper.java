@@ -0,0 +1,15 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a {@link ResultSet} to an object.
+ * The mapper must not move the cursor or keep a reference to the {@link ResultSet}.
+ *
+ * @param <T> the type of the mapped object
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(ResultSet resultSet) throws SQLException;
+}
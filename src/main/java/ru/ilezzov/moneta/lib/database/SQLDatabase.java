@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * An interface for interacting with an SQL database.
@@ -55,6 +57,70 @@ public interface SQLDatabase {
      */
     ResultSet executeQuery(String query) throws SQLException;
 
+    /**
+     * Executes a parameterized SQL query and maps every row with the given {@link RowMapper}.
+     * The statement and the result set are closed before this method returns.
+     *
+     * @param query      the SQL query with placeholders (e.g., {@code SELECT * FROM users WHERE id = ?})
+     * @param mapper     the mapper applied to each row
+     * @param parameters the parameters to bind to the placeholders
+     * @param <T>        the type of the mapped rows
+     * @return a list of mapped rows, empty if the query returned no rows
+     * @throws SQLException if an error occurs during query execution or mapping
+     */
+    <T> List<T> query(String query, RowMapper<T> mapper, Object... parameters) throws SQLException;
+
+    /**
+     * Executes a parameterized SQL query and maps the first row with the given {@link RowMapper}.
+     * The statement and the result set are closed before this method returns.
+     *
+     * @param query      the SQL query with placeholders (e.g., {@code SELECT * FROM users WHERE id = ?})
+     * @param mapper     the mapper applied to the first row
+     * @param parameters the parameters to bind to the placeholders
+     * @param <T>        the type of the mapped row
+     * @return the mapped first row, or {@code null} if the query returned no rows
+     * @throws SQLException if an error occurs during query execution or mapping
+     */
+    <T> T queryOne(String query, RowMapper<T> mapper, Object... parameters) throws SQLException;
+
+    /**
+     * Executes a parameterized SQL query through a server-side cursor and returns the rows as a lazy {@link Stream}.
+     * Rows are fetched from the database in chunks of {@code fetchSize}, so memory use does not depend on the result size.
+     * The stream holds a connection until it is closed: always consume it in a try-with-resources block.
+     * Database errors raised while iterating are rethrown as {@link IllegalStateException}.
+     *
+     * @param query      the SQL query with placeholders
+     * @param fetchSize  how many rows to fetch per round trip
+     * @param mapper     the mapper applied to each row
+     * @param parameters the parameters to bind to the placeholders
+     * @param <T>        the type of the mapped rows
+     * @return a lazy stream of mapped rows that must be closed
+     * @throws SQLException if the query could not be started
+     */
+    <T> Stream<T> stream(String query, int fetchSize, RowMapper<T> mapper, Object... parameters) throws SQLException;
+
+    /**
+     * Runs the callback on one connection inside a transaction.
+     * The transaction is committed if the callback returns normally and rolled back if it throws.
+     *
+     * @param callback the work to run, it must not close the connection
+     * @param <T>      the type of the result
+     * @return the value returned by the callback
+     * @throws SQLException if the callback or the commit fails
+     */
+    <T> T inTransaction(ConnectionCallback<T> callback) throws SQLException;
+
+    /**
+     * Runs the callback on one connection of its own in auto-commit mode, e.g. for statements that must not run
+     * inside a transaction or for session state such as advisory locks.
+     *
+     * @param callback the work to run, it must not close the connection and must restore auto-commit if it changes it
+     * @param <T>      the type of the result
+     * @return the value returned by the callback
+     * @throws SQLException if the callback fails
+     */
+    <T> T withConnection(ConnectionCallback<T> callback) throws SQLException;
+
     /**
      * Executes a raw SQL update (e.g., INSERT, UPDATE, DELETE) without parameters.
      *
@@ -103,6 +169,24 @@ public interface SQLDatabase {
      */
     int[] executePreparedBatchUpdate(String query, Iterable<Object[]> batchParams) throws SQLException;
 
+    /**
+     * Returns how many connections this database can use at the same time.
+     *
+     * @return the maximum number of concurrent connections, {@code 1} by default
+     */
+    default int getMaximumConnections() {
+        return 1;
+    }
+
+    /**
+     * Returns the SQL dialect spoken by this database.
+     *
+     * @return the {@link SQLDialect}, {@link SQLDialect#POSTGRESQL} by default
+     */
+    default SQLDialect getDialect() {
+        return SQLDialect.POSTGRESQL;
+    }
+
     /**
      * Initializes the database schema by creating necessary tables if they do not exist.
      *
@@ -0,0 +1,69 @@
+package ru.ilezzov.moneta.lib.database;
+
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+
+import java.util.Locale;
+
+/**
+ * SQL dialects supported by the repositories.
+ * Only the constructs that differ between the backends are abstracted here.
+ */
+public enum SQLDialect {
+    POSTGRESQL {
+        @Override
+        public String returning(final String insert, final String columns) {
+            return insert + " RETURNING " + columns;
+        }
+
+        @Override
+        public String returning(final String insert, final String columns, final String orderBy) {
+            return "WITH inserted AS (" + returning(insert, columns) + ") SELECT * FROM inserted ORDER BY " + orderBy;
+        }
+    },
+    H2 {
+        @Override
+        public String returning(final String insert, final String columns) {
+            return "SELECT " + columns + " FROM FINAL TABLE (" + insert + ")";
+        }
+
+        @Override
+        public String returning(final String insert, final String columns, final String orderBy) {
+            return returning(insert, columns) + " ORDER BY " + orderBy;
+        }
+
+        @Override
+        public String dateTrunc(final StatsBucket bucket, final String column) {
+            // H2 starts WEEK on the locale's first day, ISO_WEEK on Monday like PostgreSQL
+            final String unit = bucket == StatsBucket.WEEK ? "ISO_WEEK" : bucket.getUnit().toUpperCase(Locale.ROOT);
+            return "DATE_TRUNC(" + unit + ", " + column + ")";
+        }
+    };
+
+    /**
+     * Turns an INSERT statement into a query that returns the given columns of the inserted rows.
+     *
+     * @param insert  the INSERT statement
+     * @param columns comma separated list of the columns to return
+     * @return a query to run with {@link SQLDatabase#queryOne(String, RowMapper, Object...)}
+     */
+    public abstract String returning(final String insert, final String columns);
+
+    /**
+     * Like {@link #returning(String, String)}, with the returned rows sorted, since neither backend promises
+     * to return them in the order of the {@code VALUES} list.
+     *
+     * @param orderBy the {@code ORDER BY} expression, it may only use the returned columns
+     */
+    public abstract String returning(final String insert, final String columns, final String orderBy);
+
+    /**
+     * Truncates a timestamp column to the start of its bucket.
+     *
+     * @param bucket the bucket size
+     * @param column the timestamp column
+     * @return an SQL expression
+     */
+    public String dateTrunc(final StatsBucket bucket, final String column) {
+        return "date_trunc('" + bucket.getUnit() + "', " + column + ")";
+    }
+}
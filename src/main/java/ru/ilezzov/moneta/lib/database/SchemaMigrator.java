@@ -0,0 +1,269 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Brings the schema up to date with versioned migrations.
+ * Migration {@code n} is the script {@code database.schema/migrations/<dialect>/V<n>__<description>.sql},
+ * the versions already applied are recorded in the {@code schema_version} table, so every script runs once per database.
+ * <p>
+ * A script runs in one transaction together with its version record, unless its first line is
+ * {@value #NO_TRANSACTION}: such scripts run statement by statement in auto-commit mode, which {@code CREATE INDEX CONCURRENTLY}
+ * requires, and must be idempotent, because a failure leaves the statements that already ran in place.
+ * On PostgreSQL an advisory lock keeps several application instances from migrating the same database at the same time.
+ */
+public class SchemaMigrator {
+    public static final String NO_TRANSACTION = "-- moneta:no-transaction";
+
+    private static final long LOCK_KEY = 0x6d6f6e657461L;
+    private static final long LOCK_POLL_MILLIS = 200;
+    private static final int MAX_REPORTED_CONFLICTS = 20;
+    private static final Conflicts DUPLICATE_PRODUCT_NAMES = new Conflicts("""
+            SELECT name FROM products
+            WHERE name IS NOT NULL
+            GROUP BY name
+            HAVING COUNT(*) > 1
+            ORDER BY name
+            """, "needs unique product names, rename or merge the products named");
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "create_tables", null),
+            new Migration(2, "stored_generated_columns", null),
+            // The unique index on products.name cannot be built while the names repeat
+            new Migration(3, "indexes", DUPLICATE_PRODUCT_NAMES),
+            new Migration(4, "monthly_rollups", null)
+    );
+
+    private final SQLDatabase database;
+
+    public SchemaMigrator(final SQLDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Applies the migrations that are not recorded in {@code schema_version} yet, in version order.
+     *
+     * @return the versions applied by this call, empty if the schema was up to date
+     * @throws SQLException if a migration fails, the versions before it stay applied
+     */
+    public List<Integer> migrate() throws SQLException, IOException {
+        final SQLDialect dialect = database.getDialect();
+        final List<Script> scripts = new ArrayList<>(MIGRATIONS.size());
+
+        for (final Migration migration : MIGRATIONS) {
+            scripts.add(new Script(migration, SqlScript.load(migration.path(dialect))));
+        }
+
+        return database.withConnection(connection -> {
+            lock(connection, dialect);
+            try {
+                createVersionTable(connection);
+
+                final Set<Integer> applied = appliedVersions(connection);
+                final List<Integer> versions = new ArrayList<>();
+
+                for (final Script script : scripts) {
+                    if (!applied.contains(script.migration().version())) {
+                        apply(connection, dialect, script);
+                        versions.add(script.migration().version());
+                    }
+                }
+                return versions;
+            } finally {
+                unlock(connection, dialect);
+            }
+        });
+    }
+
+    private static void apply(final Connection connection, final SQLDialect dialect, final Script script) throws SQLException {
+        final List<String> statements = SqlScript.split(script.sql());
+
+        checkConflicts(connection, script.migration());
+
+        if (script.sql().startsWith(NO_TRANSACTION)) {
+            if (dialect == SQLDialect.POSTGRESQL) {
+                dropInvalidIndexes(connection);
+            }
+            execute(connection, statements);
+            recordVersion(connection, script.migration());
+            return;
+        }
+
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, statements);
+            recordVersion(connection, script.migration());
+            connection.commit();
+        } catch (final SQLException | RuntimeException e) {
+            connection.rollback();
+            throw new SQLException("Migration V" + script.migration().version() + " " + script.migration().description() + " failed", e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Fails before the script runs if the data breaks a constraint the migration adds, naming the offending values,
+     * instead of failing halfway through the script on every start.
+     */
+    private static void checkConflicts(final Connection connection, final Migration migration) throws SQLException {
+        if (migration.conflicts() == null) {
+            return;
+        }
+
+        final List<String> conflicts = new ArrayList<>();
+        try (final Statement statement = connection.createStatement()) {
+            statement.setMaxRows(MAX_REPORTED_CONFLICTS);
+
+            try (final ResultSet resultSet = statement.executeQuery(migration.conflicts().query())) {
+                while (resultSet.next()) {
+                    conflicts.add(resultSet.getString(1));
+                }
+            }
+        }
+
+        if (!conflicts.isEmpty()) {
+            throw new SQLException("Migration V" + migration.version() + " " + migration.description()
+                    + " " + migration.conflicts().problem() + " " + conflicts
+                    + (conflicts.size() == MAX_REPORTED_CONFLICTS ? " and possibly more" : ""));
+        }
+    }
+
+    private static void execute(final Connection connection, final List<String> statements) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            for (final String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * An interrupted {@code CREATE INDEX CONCURRENTLY} leaves an invalid index behind that {@code IF NOT EXISTS} would keep,
+     * so the invalid indexes of the library tables are dropped before such a migration is repeated.
+     */
+    private static void dropInvalidIndexes(final Connection connection) throws SQLException {
+        final String sql = """
+                SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname) AS index_name
+                FROM pg_index i
+                JOIN pg_class c ON c.oid = i.indexrelid
+                JOIN pg_class t ON t.oid = i.indrelid
+                JOIN pg_namespace n ON n.oid = c.relnamespace
+                WHERE NOT i.indisvalid
+                  AND pg_table_is_visible(t.oid)
+                  AND t.relname IN ('products', 'sales', 'purchases', 'expenses')
+                """;
+
+        final List<String> invalid = new ArrayList<>();
+        try (final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                invalid.add(resultSet.getString("index_name"));
+            }
+        }
+
+        for (final String index : invalid) {
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+            }
+        }
+    }
+
+    private static void createVersionTable(final Connection connection) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS schema_version (
+                        version INTEGER PRIMARY KEY,
+                        description VARCHAR(255) NOT NULL,
+                        installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+        }
+    }
+
+    private static Set<Integer> appliedVersions(final Connection connection) throws SQLException {
+        final Set<Integer> versions = new HashSet<>();
+
+        try (final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery("SELECT version FROM schema_version")) {
+            while (resultSet.next()) {
+                versions.add(resultSet.getInt("version"));
+            }
+        }
+        return versions;
+    }
+
+    private static void recordVersion(final Connection connection, final Migration migration) throws SQLException {
+        try (final PreparedStatement ps = connection.prepareStatement("INSERT INTO schema_version (version, description) VALUES (?, ?)")) {
+            ps.setInt(1, migration.version());
+            ps.setString(2, migration.description());
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Polls instead of blocking in {@code pg_advisory_lock}: a session waiting there keeps a transaction open,
+     * which a {@code CREATE INDEX CONCURRENTLY} of the lock holder would wait for in turn.
+     */
+    private static void lock(final Connection connection, final SQLDialect dialect) throws SQLException {
+        if (dialect != SQLDialect.POSTGRESQL) {
+            return;
+        }
+
+        try (final PreparedStatement ps = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            ps.setLong(1, LOCK_KEY);
+
+            while (true) {
+                try (final ResultSet resultSet = ps.executeQuery()) {
+                    if (resultSet.next() && resultSet.getBoolean(1)) {
+                        return;
+                    }
+                }
+
+                try {
+                    Thread.sleep(LOCK_POLL_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the migration lock.", e);
+                }
+            }
+        }
+    }
+
+    private static void unlock(final Connection connection, final SQLDialect dialect) throws SQLException {
+        if (dialect == SQLDialect.POSTGRESQL) {
+            try (final PreparedStatement ps = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                ps.setLong(1, LOCK_KEY);
+                ps.execute();
+            }
+        }
+    }
+
+    /**
+     * @param conflicts the data that keeps the migration from succeeding, {@code null} for none
+     */
+    private record Migration(int version, String description, Conflicts conflicts) {
+
+        String path(final SQLDialect dialect) {
+            return "database.schema/migrations/" + dialect.name().toLowerCase(Locale.ROOT) + "/V" + version + "__" + description + ".sql";
+        }
+    }
+
+    private record Script(Migration migration, String sql) {
+    }
+
+    /**
+     * @param query   returns the conflicting values in its first column
+     * @param problem what the migration needs, followed by the values in the error message
+     */
+    private record Conflicts(String query, String problem) {
+    }
+}
@@ -0,0 +1,118 @@
+package ru.ilezzov.moneta.lib.database;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits SQL scripts into single statements.
+ * Semicolons inside string literals, quoted identifiers, comments and PostgreSQL dollar-quoted bodies
+ * (e.g. {@code DO $$ ... $$}) do not end a statement.
+ */
+public final class SqlScript {
+
+    private SqlScript() {
+    }
+
+    /**
+     * Reads a UTF-8 script from the classpath.
+     *
+     * @throws FileNotFoundException if there is no such resource
+     */
+    public static String load(final String path) throws IOException {
+        try (final InputStream in = SqlScript.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new FileNotFoundException("Schema file not found: " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the statements of the script without their trailing semicolons, blank and comment-only statements are dropped
+     */
+    public static List<String> split(final String sql) {
+        final List<String> statements = new ArrayList<>();
+        final int length = sql.length();
+        int start = 0;
+        int i = 0;
+
+        while (i < length) {
+            final char c = sql.charAt(i);
+
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                final int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '$') {
+                i = skipDollarQuoted(sql, i);
+            } else if (c == ';') {
+                addStatement(statements, sql.substring(start, i));
+                start = ++i;
+            } else {
+                i++;
+            }
+        }
+
+        addStatement(statements, sql.substring(start));
+        return statements;
+    }
+
+    private static int skipQuoted(final String sql, final int open, final char quote) {
+        int i = open + 1;
+
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                // A doubled quote is an escaped quote
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return sql.length();
+    }
+
+    private static int skipDollarQuoted(final String sql, final int open) {
+        int i = open + 1;
+
+        while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) {
+            i++;
+        }
+
+        // Not a tag like $$ or $body$ but e.g. a positional parameter $1
+        if (i >= sql.length() || sql.charAt(i) != '$' || (i > open + 1 && Character.isDigit(sql.charAt(open + 1)))) {
+            return open + 1;
+        }
+
+        final String tag = sql.substring(open, i + 1);
+        final int end = sql.indexOf(tag, i + 1);
+        return end < 0 ? sql.length() : end + tag.length();
+    }
+
+    private static void addStatement(final List<String> statements, final String statement) {
+        if (!isBlank(statement)) {
+            statements.add(statement.trim());
+        }
+    }
+
+    private static boolean isBlank(final String statement) {
+        for (final String line : statement.split("\n")) {
+            final String trimmed = line.trim();
+
+            if (!trimmed.isEmpty() && !trimmed.startsWith("--")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
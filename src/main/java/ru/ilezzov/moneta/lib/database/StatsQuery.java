@@ -0,0 +1,217 @@
+package ru.ilezzov.moneta.lib.database;
+
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds aggregate queries over one date column of a table.
+ * The period is always filtered as a half-open range {@code date >= start AND date < end} on the bare column,
+ * so the date index is used and the cost depends on the rows in the period, not on the size of the table.
+ * Grouped queries bucket the rows with {@code date_trunc}, see {@link SQLDialect#dateTrunc}.
+ * <pre>{@code
+ * StatsQuery.from("sales", "sale_date")
+ *         .count("sales_count")
+ *         .sum("total_price", "total_turnover")
+ *         .between(start, end)
+ *         .groupBy(StatsBucket.MONTH)
+ *         .buckets(database, mapper, empty);
+ * }</pre>
+ */
+public final class StatsQuery {
+    private final String table;
+    private final String dateColumn;
+    private final List<Aggregate> aggregates = new ArrayList<>();
+
+    private LocalDateTime start;
+    private LocalDateTime end;
+    private StatsBucket bucket;
+
+    private StatsQuery(final String table, final String dateColumn) {
+        this.table = table;
+        this.dateColumn = dateColumn;
+    }
+
+    /**
+     * @param table      the table to aggregate, a trusted identifier
+     * @param dateColumn the timestamp column the period and the buckets refer to, a trusted identifier
+     */
+    public static StatsQuery from(final String table, final String dateColumn) {
+        return new StatsQuery(table, dateColumn);
+    }
+
+    /**
+     * Whether a table with one row per month can answer the query instead of the raw rows,
+     * i.e. the period starts and ends on the first day of a month and the buckets are not shorter than a month.
+     *
+     * @param bucket the buckets of the query, {@code null} for a total
+     */
+    public static boolean isMonthAligned(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        return start.getDayOfMonth() == 1 && end.getDayOfMonth() == 1
+                && (bucket == null || bucket == StatsBucket.MONTH || bucket == StatsBucket.QUARTER);
+    }
+
+    public StatsQuery count(final String alias) {
+        aggregates.add(new Aggregate("COUNT(*)", alias));
+        return this;
+    }
+
+    public StatsQuery sum(final String column, final String alias) {
+        aggregates.add(new Aggregate("COALESCE(SUM(" + column + "), 0)", alias));
+        return this;
+    }
+
+    public StatsQuery avg(final String column, final String alias) {
+        aggregates.add(new Aggregate("COALESCE(AVG(" + column + "), 0)", alias));
+        return this;
+    }
+
+    /**
+     * Adds an arbitrary aggregate, e.g. a ratio of two sums of a rollup table.
+     *
+     * @param expression an SQL aggregate expression built from trusted identifiers
+     */
+    public StatsQuery aggregate(final String expression, final String alias) {
+        aggregates.add(new Aggregate(expression, alias));
+        return this;
+    }
+
+    /**
+     * Limits the rows to {@code [start, end)}.
+     */
+    public StatsQuery between(final LocalDateTime start, final LocalDateTime end) {
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    /**
+     * Limits the rows to the days from {@code start} inclusive to {@code end} exclusive.
+     */
+    public StatsQuery between(final LocalDate start, final LocalDate end) {
+        return between(start.atStartOfDay(), end.atStartOfDay());
+    }
+
+    /**
+     * Groups the rows by bucket, adding the bucket start as the {@code bucket} column.
+     */
+    public StatsQuery groupBy(final StatsBucket bucket) {
+        this.bucket = bucket;
+        return this;
+    }
+
+    public String toSql(final SQLDialect dialect) {
+        final String sql = select(dialect, aliases());
+        return bucket == null ? sql : sql + " ORDER BY bucket";
+    }
+
+    /**
+     * Builds the query without ordering, selecting the given columns in their order.
+     * The columns this query has no aggregate for are selected as {@code 0}.
+     */
+    String select(final SQLDialect dialect, final List<String> columns) {
+        if (start == null || end == null) {
+            throw new IllegalStateException("The period of a stats query must be set");
+        }
+        if (aggregates.isEmpty()) {
+            throw new IllegalStateException("A stats query needs at least one aggregate");
+        }
+
+        final List<String> select = new ArrayList<>(columns.size());
+        for (final String column : columns) {
+            select.add(expression(column) + " AS " + column);
+        }
+
+        final String where = " FROM " + table + " WHERE " + dateColumn + " >= ? AND " + dateColumn + " < ?";
+
+        if (bucket == null) {
+            return "SELECT " + String.join(", ", select) + where;
+        }
+
+        final String truncated = dialect.dateTrunc(bucket, dateColumn);
+        return "SELECT " + truncated + " AS bucket, " + String.join(", ", select) + where + " GROUP BY " + truncated;
+    }
+
+    List<String> aliases() {
+        final List<String> aliases = new ArrayList<>(aggregates.size());
+
+        for (final Aggregate aggregate : aggregates) {
+            aliases.add(aggregate.alias());
+        }
+        return aliases;
+    }
+
+    private String expression(final String alias) {
+        for (final Aggregate aggregate : aggregates) {
+            if (aggregate.alias().equals(alias)) {
+                return aggregate.expression();
+            }
+        }
+        return "0";
+    }
+
+    LocalDateTime getStart() {
+        return start;
+    }
+
+    LocalDateTime getEnd() {
+        return end;
+    }
+
+    StatsBucket getBucket() {
+        return bucket;
+    }
+
+    public Object[] getParameters() {
+        return new Object[]{Timestamp.valueOf(start), Timestamp.valueOf(end)};
+    }
+
+    /**
+     * Runs the ungrouped query.
+     *
+     * @return the aggregates of the whole period
+     */
+    public <T> T total(final SQLDatabase database, final RowMapper<T> mapper) throws SQLException {
+        return database.queryOne(toSql(database.getDialect()), mapper, getParameters());
+    }
+
+    /**
+     * Runs the grouped query.
+     *
+     * @param empty the value of a bucket without rows
+     * @return one value per bucket in date order, from the bucket containing the start of the period
+     *         to the one containing its end, buckets without rows included
+     */
+    public <T> List<T> buckets(final SQLDatabase database, final RowMapper<T> mapper, final T empty) throws SQLException {
+        if (bucket == null) {
+            throw new IllegalStateException("Call groupBy before buckets");
+        }
+
+        return fillBuckets(database, toSql(database.getDialect()), getParameters(), mapper, empty, bucket, start, end);
+    }
+
+    /**
+     * Runs a grouped query and returns one value per bucket of {@code [start, end)}, {@code empty} for the buckets without a row.
+     */
+    static <T> List<T> fillBuckets(final SQLDatabase database, final String sql, final Object[] parameters, final RowMapper<T> mapper, final T empty,
+                                   final StatsBucket bucket, final LocalDateTime start, final LocalDateTime end) throws SQLException {
+        final Map<LocalDateTime, T> rows = new HashMap<>();
+        database.query(sql, resultSet -> rows.put(resultSet.getTimestamp("bucket").toLocalDateTime(), mapper.map(resultSet)), parameters);
+
+        final List<T> result = new ArrayList<>();
+        for (LocalDateTime current = bucket.truncate(start); current.isBefore(end); current = bucket.next(current)) {
+            result.add(rows.getOrDefault(current, empty));
+        }
+        return result;
+    }
+
+    private record Aggregate(String expression, String alias) {
+    }
+}
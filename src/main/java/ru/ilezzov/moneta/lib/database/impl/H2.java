@@ -0,0 +1,69 @@
+package ru.ilezzov.moneta.lib.database.impl;
+
+import ru.ilezzov.moneta.lib.database.SQLDialect;
+import ru.ilezzov.moneta.lib.database.SchemaMigrator;
+import ru.ilezzov.moneta.lib.database.pool.PoolSettings;
+import ru.ilezzov.moneta.lib.database.pool.PooledSQLDatabase;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Embedded H2 database running inside the application process.
+ * Use {@link #inMemory(String)} for a throwaway database or {@link #file(String)} for a persistent one.
+ */
+public class H2 extends PooledSQLDatabase {
+    private final String url;
+    private final String username;
+    private final String password;
+
+    public H2(final String url, final String username, final String password, final PoolSettings settings) {
+        super(settings);
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Creates an in-memory database that lives until the JVM exits.
+     *
+     * @param name the database name, databases with the same name share data
+     */
+    public static H2 inMemory(final String name) {
+        return inMemory(name, PoolSettings.defaults());
+    }
+
+    public static H2 inMemory(final String name, final PoolSettings settings) {
+        return new H2("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "", settings);
+    }
+
+    /**
+     * Creates a database stored in a file.
+     *
+     * @param path the file path without the {@code .mv.db} extension
+     */
+    public static H2 file(final String path) {
+        return file(path, PoolSettings.defaults());
+    }
+
+    public static H2 file(final String path, final PoolSettings settings) {
+        return new H2("jdbc:h2:file:" + path, "sa", "", settings);
+    }
+
+    @Override
+    protected Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    @Override
+    public SQLDialect getDialect() {
+        return SQLDialect.H2;
+    }
+
+    @Override
+    public void initialize() throws SQLException, IOException {
+        new SchemaMigrator(this).migrate();
+    }
+}
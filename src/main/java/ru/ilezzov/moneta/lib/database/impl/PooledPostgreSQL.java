@@ -0,0 +1,58 @@
+package ru.ilezzov.moneta.lib.database.impl;
+
+import ru.ilezzov.moneta.lib.database.SchemaMigrator;
+import ru.ilezzov.moneta.lib.database.pool.PoolSettings;
+import ru.ilezzov.moneta.lib.database.pool.PooledSQLDatabase;
+
+import java.io.IOException;
+import java.sql.*;
+
+public class PooledPostgreSQL extends PooledSQLDatabase {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String database;
+
+    public PooledPostgreSQL(final String host, final int port, final String database, final String username, final String password) {
+        this(host, port, database, username, password, PoolSettings.defaults());
+    }
+
+    public PooledPostgreSQL(final String host, final int port, final String database, final String username, final String password, final PoolSettings settings) {
+        super(settings);
+        this.url = "jdbc:postgresql://" + host + ":" + port + "/" + database;
+        this.database = database;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    protected void beforeConnect() throws SQLException {
+        createDatabaseIfNotExists();
+    }
+
+    @Override
+    protected Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    private void createDatabaseIfNotExists() throws SQLException {
+        final String baseUrl = url.substring(0, url.lastIndexOf("/") + 1) + "postgres";
+        try (final Connection conn = DriverManager.getConnection(baseUrl, username, password);
+             final PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, database);
+
+            try (final ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    try (final Statement stmt = conn.createStatement()) {
+                        stmt.executeUpdate("CREATE DATABASE \"" + database + "\"");
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void initialize() throws SQLException, IOException {
+        new SchemaMigrator(this).migrate();
+    }
+}
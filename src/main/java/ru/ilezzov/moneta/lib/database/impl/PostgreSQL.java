@@ -1,32 +1,50 @@
 package ru.ilezzov.moneta.lib.database.impl;
 
+import ru.ilezzov.moneta.lib.database.ConnectionCallback;
+import ru.ilezzov.moneta.lib.database.CursorStreams;
+import ru.ilezzov.moneta.lib.database.RowMapper;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SchemaMigrator;
+import ru.ilezzov.moneta.lib.database.pool.ConnectionPool;
+import ru.ilezzov.moneta.lib.database.pool.PoolSettings;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class PostgreSQL implements SQLDatabase {
     private final String url;
     private final String username;
     private final String password;
     private final String database;
+    private final PoolSettings dedicatedSettings;
     private Connection connection;
+    private volatile ConnectionPool dedicated;
 
     public PostgreSQL(final String host, final int port, final String database, final String username, final String password) {
+        this(host, port, database, username, password, new PoolSettings(4, 30_000, 5, 64));
+    }
+
+    /**
+     * @param dedicatedSettings the settings of the connections kept open for streams, transactions
+     *                          and {@link #withConnection}, next to the shared connection
+     */
+    public PostgreSQL(final String host, final int port, final String database, final String username, final String password, final PoolSettings dedicatedSettings) {
         this.url = "jdbc:postgresql://" + host + ":" + port + "/" + database;
         this.database = database;
         this.username = username;
         this.password = password;
+        this.dedicatedSettings = dedicatedSettings;
     }
 
     @Override
-    public void connect() throws SQLException {
+    public synchronized void connect() throws SQLException {
         if (!isConnected()) {
             createDatabaseIfNotExists();
             this.connection = DriverManager.getConnection(url, username, password);
+            this.dedicated = new ConnectionPool(() -> DriverManager.getConnection(url, username, password), dedicatedSettings);
         }
     }
 
@@ -52,8 +70,9 @@ public class PostgreSQL implements SQLDatabase {
     }
 
     @Override
-    public void disconnect() throws SQLException {
+    public synchronized void disconnect() throws SQLException {
         if (isConnected()) {
+            dedicated.close();
             connection.close();
         }
     }
@@ -78,7 +97,13 @@ public class PostgreSQL implements SQLDatabase {
         }
 
         final Statement statement = connection.createStatement();
-        return statement.executeQuery(query);
+        try {
+            statement.closeOnCompletion();
+            return statement.executeQuery(query);
+        } catch (final SQLException e) {
+            statement.close();
+            throw e;
+        }
     }
 
     @Override
@@ -87,8 +112,9 @@ public class PostgreSQL implements SQLDatabase {
             throw new SQLException("Not connected to the database.");
         }
 
-        final Statement statement = connection.createStatement();
-        return statement.executeUpdate(query);
+        try (final Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(query);
+        }
     }
 
     @Override
@@ -98,21 +124,113 @@ public class PostgreSQL implements SQLDatabase {
         }
 
         final PreparedStatement ps = connection.prepareStatement(query);
-        bindParameters(ps, parameters);
+        try {
+            bindParameters(ps, parameters);
+            // The statement is released together with the returned ResultSet
+            ps.closeOnCompletion();
+            return ps.executeQuery();
+        } catch (final SQLException e) {
+            ps.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> List<T> query(final String query, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        if (!isConnected()) {
+            throw new SQLException("Not connected to the database.");
+        }
+
+        try (final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                final List<T> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(mapper.map(resultSet));
+                }
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public <T> T queryOne(final String query, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        if (!isConnected()) {
+            throw new SQLException("Not connected to the database.");
+        }
+
+        try (final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
 
-        return ps.executeQuery();
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                return resultSet.next() ? mapper.map(resultSet) : null;
+            }
+        }
     }
 
+    /**
+     * Streams use a dedicated connection, because a cursor needs auto-commit disabled
+     * and must not share the connection used by other calls. It goes back to the dedicated pool when the stream is closed.
+     */
     @Override
-    public int executePreparedUpdate(final String query, final Object... parameters) throws SQLException {
+    public <T> Stream<T> stream(final String query, final int fetchSize, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
         if (!isConnected()) {
             throw new SQLException("Not connected to the database.");
         }
 
-        final PreparedStatement ps = connection.prepareStatement(query);
-        bindParameters(ps, parameters);
+        return CursorStreams.open(dedicated.borrow(), query, fetchSize, mapper, parameters);
+    }
+
+    /**
+     * Transactions use a dedicated connection, so statements of other threads
+     * running on the shared connection do not end up inside the transaction.
+     * Dedicated connections are kept open between calls, a transaction does not pay for a new connection.
+     */
+    @Override
+    public <T> T inTransaction(final ConnectionCallback<T> callback) throws SQLException {
+        if (!isConnected()) {
+            throw new SQLException("Not connected to the database.");
+        }
+
+        try (final Connection dedicated = this.dedicated.borrow()) {
+            dedicated.setAutoCommit(false);
+            try {
+                final T result = callback.apply(dedicated);
+                dedicated.commit();
+                return result;
+            } catch (final SQLException | RuntimeException e) {
+                try {
+                    dedicated.rollback();
+                } catch (final SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public <T> T withConnection(final ConnectionCallback<T> callback) throws SQLException {
+        if (!isConnected()) {
+            throw new SQLException("Not connected to the database.");
+        }
+
+        try (final Connection dedicated = this.dedicated.borrow()) {
+            return callback.apply(dedicated);
+        }
+    }
+
+    @Override
+    public int executePreparedUpdate(final String query, final Object... parameters) throws SQLException {
+        if (!isConnected()) {
+            throw new SQLException("Not connected to the database.");
+        }
 
-        return ps.executeUpdate();
+        try (final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+            return ps.executeUpdate();
+        }
     }
 
     @Override
@@ -140,25 +258,7 @@ public class PostgreSQL implements SQLDatabase {
 
     @Override
     public void initialize() throws SQLException, IOException {
-        runSchemaFile();
-    }
-
-    private void runSchemaFile() throws SQLException, IOException {
-        try (final InputStream in = getClass().getClassLoader().getResourceAsStream("database.schema/tables.sql")) {
-            if (in == null) {
-                throw new FileNotFoundException("Schema file not found: " + "database.schema/tables.sql");
-            }
-
-            final String sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
-
-            try (final Statement stmt = connection.createStatement()) {
-                for (final String query : sql.split(";")) {
-                    if (!query.trim().isEmpty()) {
-                        stmt.execute(query.trim());
-                    }
-                }
-            }
-        }
+        new SchemaMigrator(this).migrate();
     }
 
     private void bindParameters(final PreparedStatement statement, final Object... parameters) throws SQLException {
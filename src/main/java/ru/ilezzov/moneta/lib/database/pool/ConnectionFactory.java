@@ -0,0 +1,12 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens new physical connections for a {@link ConnectionPool}.
+ */
+@FunctionalInterface
+public interface ConnectionFactory {
+    Connection create() throws SQLException;
+}
@@ -0,0 +1,167 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections.
+ * Connections are borrowed per call and returned by closing the borrowed {@link Connection}.
+ * Idle connections are reused most-recently-used first and validated before reuse.
+ * Each connection keeps its own {@link StatementCache} of prepared statements.
+ */
+public class ConnectionPool implements AutoCloseable {
+    // A connection that was in use a moment ago is assumed to be alive
+    private static final long VALIDATION_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final ConnectionFactory factory;
+    private final PoolSettings settings;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private volatile boolean closed;
+
+    public ConnectionPool(final ConnectionFactory factory, final PoolSettings settings) {
+        this.factory = factory;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.maximumPoolSize(), true);
+    }
+
+    /**
+     * Borrows a connection, waiting up to {@link PoolSettings#connectionTimeoutMillis()} for a free one.
+     * The connection is returned to the pool when it is closed.
+     *
+     * @return a borrowed {@link Connection}
+     * @throws SQLException if the pool is closed, the wait timed out or a new connection could not be opened
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        final long start = System.nanoTime();
+        final boolean acquired;
+
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(settings.connectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        final long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLTimeoutException("Timed out after " + settings.connectionTimeoutMillis() + " ms waiting for a database connection.");
+        }
+
+        try {
+            final PooledConnection connection = takeIdleOrCreate();
+            active.incrementAndGet();
+            borrowCount.increment();
+            return connection.lease();
+        } catch (final SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrCreate() throws SQLException {
+        PooledConnection connection;
+
+        while ((connection = idle.pollFirst()) != null) {
+            if (connection.idleNanos() < VALIDATION_IDLE_NANOS || connection.isValid(settings.validationTimeoutSeconds())) {
+                return connection;
+            }
+            connection.closeQuietly();
+        }
+
+        return new PooledConnection(this, factory.create(), settings.statementCacheSize());
+    }
+
+    void release(final PooledConnection connection) {
+        active.decrementAndGet();
+
+        if (!closed && connection.reset()) {
+            idle.offerFirst(connection);
+
+            // close() may have drained the pool between the check and the offer
+            if (closed) {
+                drainIdle();
+            }
+        } else {
+            connection.closeQuietly();
+        }
+
+        permits.release();
+    }
+
+    public PoolStats getStats() {
+        return new PoolStats(
+                active.get(),
+                idle.size(),
+                waiting.get(),
+                settings.maximumPoolSize(),
+                borrowCount.sum(),
+                timeoutCount.sum(),
+                totalWaitNanos.sum(),
+                maxWaitNanos.get(),
+                statementCacheHits.sum(),
+                statementCacheMisses.sum()
+        );
+    }
+
+    void recordStatementCacheHit() {
+        statementCacheHits.increment();
+    }
+
+    void recordStatementCacheMiss() {
+        statementCacheMisses.increment();
+    }
+
+    public PoolSettings getSettings() {
+        return settings;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed as soon as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drainIdle();
+    }
+
+    private void drainIdle() {
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.closeQuietly();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+/**
+ * Settings of a {@link ConnectionPool}.
+ *
+ * @param maximumPoolSize          the maximum number of connections opened at the same time
+ * @param connectionTimeoutMillis  how long a caller waits for a free connection before failing
+ * @param validationTimeoutSeconds the timeout passed to {@link java.sql.Connection#isValid(int)} when an idle connection is checked
+ * @param statementCacheSize       how many prepared statements each connection keeps open, {@code 0} disables the cache
+ */
+public record PoolSettings(int maximumPoolSize, long connectionTimeoutMillis, int validationTimeoutSeconds, int statementCacheSize) {
+
+    public PoolSettings {
+        if (maximumPoolSize < 1) {
+            throw new IllegalArgumentException("maximumPoolSize must be positive: " + maximumPoolSize);
+        }
+        if (connectionTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectionTimeoutMillis must not be negative: " + connectionTimeoutMillis);
+        }
+        if (validationTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("validationTimeoutSeconds must not be negative: " + validationTimeoutSeconds);
+        }
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("statementCacheSize must not be negative: " + statementCacheSize);
+        }
+    }
+
+    public static PoolSettings defaults() {
+        return new PoolSettings(10, 30_000, 5, 64);
+    }
+}
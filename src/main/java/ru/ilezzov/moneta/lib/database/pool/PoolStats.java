@@ -0,0 +1,34 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+/**
+ * A point-in-time snapshot of {@link ConnectionPool} metrics.
+ *
+ * @param active        connections currently borrowed
+ * @param idle          open connections waiting in the pool
+ * @param waiting       callers currently blocked waiting for a connection
+ * @param maximumSize   the configured upper bound of open connections
+ * @param borrowCount   total number of successful borrows
+ * @param timeoutCount  total number of borrows that timed out
+ * @param totalWaitNanos total time callers spent waiting for a connection
+ * @param maxWaitNanos  the longest single wait for a connection
+ * @param statementCacheHits   prepared statements reused from a connection's statement cache
+ * @param statementCacheMisses prepared statements that had to be created
+ */
+public record PoolStats(int active, int idle, int waiting, int maximumSize,
+                        long borrowCount, long timeoutCount, long totalWaitNanos, long maxWaitNanos,
+                        long statementCacheHits, long statementCacheMisses) {
+
+    public double averageWaitMillis() {
+        final long attempts = borrowCount + timeoutCount;
+        return attempts == 0 ? 0 : totalWaitNanos / 1_000_000.0 / attempts;
+    }
+
+    public double statementCacheHitRatio() {
+        final long lookups = statementCacheHits + statementCacheMisses;
+        return lookups == 0 ? 0 : (double) statementCacheHits / lookups;
+    }
+
+    public double maxWaitMillis() {
+        return maxWaitNanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}.
+ * Every borrow hands out a fresh proxy whose {@link Connection#close()} returns the connection to the pool.
+ */
+final class PooledConnection {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private volatile long lastReleasedNanos;
+
+    PooledConnection(final ConnectionPool pool, final Connection connection, final int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(pool, statementCacheSize) : null;
+        this.lastReleasedNanos = System.nanoTime();
+    }
+
+    Connection lease() {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new Lease()
+        );
+    }
+
+    long idleNanos() {
+        return System.nanoTime() - lastReleasedNanos;
+    }
+
+    boolean isValid(final int timeoutSeconds) {
+        try {
+            return connection.isValid(timeoutSeconds);
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores the connection to the state the next borrower expects.
+     *
+     * @return {@code false} if the connection is broken and must be discarded
+     */
+    boolean reset() {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            connection.clearWarnings();
+            lastReleasedNanos = System.nanoTime();
+            return true;
+        } catch (final SQLException e) {
+            return false;
+        }
+    }
+
+    void closeQuietly() {
+        if (statementCache != null) {
+            statementCache.closeAll();
+        }
+        try {
+            connection.close();
+        } catch (final SQLException ignored) {
+        }
+    }
+
+    private final class Lease implements InvocationHandler {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (released.compareAndSet(false, true)) {
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return released.get() || connection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "PooledConnection[" + connection + "]";
+                }
+                default -> {
+                    if (released.get()) {
+                        throw new SQLException("Connection has already been returned to the pool.");
+                    }
+                }
+            }
+
+            if (statementCache != null && method.getName().equals("prepareStatement") && args.length == 1) {
+                return statementCache.prepare(connection, (String) args[0]);
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+import ru.ilezzov.moneta.lib.database.ConnectionCallback;
+import ru.ilezzov.moneta.lib.database.CursorStreams;
+import ru.ilezzov.moneta.lib.database.RowMapper;
+import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SqlScript;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Base class for {@link SQLDatabase} implementations backed by a {@link ConnectionPool}.
+ * Every call borrows its own connection, so calls from different threads run in parallel.
+ * {@link #query} and {@link #queryOne} map rows straight from the live result set, while
+ * {@link #executeQuery} and {@link #executePreparedQuery} copy the rows into a disconnected
+ * {@link CachedRowSet} before the connection goes back to the pool.
+ */
+public abstract class PooledSQLDatabase implements SQLDatabase {
+    private static final RowSetFactory ROW_SET_FACTORY = createRowSetFactory();
+
+    private final PoolSettings settings;
+    private volatile ConnectionPool pool;
+
+    protected PooledSQLDatabase(final PoolSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Opens a new physical connection for the pool.
+     */
+    protected abstract Connection openConnection() throws SQLException;
+
+    /**
+     * Called once before the pool is created, e.g. to create the database itself.
+     */
+    protected void beforeConnect() throws SQLException {
+    }
+
+    @Override
+    public synchronized void connect() throws SQLException {
+        if (!isConnected()) {
+            beforeConnect();
+
+            final ConnectionPool pool = new ConnectionPool(this::openConnection, settings);
+            // Fail fast on wrong credentials instead of on the first repository call
+            try {
+                pool.borrow().close();
+            } catch (final SQLException | RuntimeException e) {
+                pool.close();
+                throw e;
+            }
+            this.pool = pool;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        final ConnectionPool pool = this.pool;
+        return pool != null && !pool.isClosed();
+    }
+
+    @Override
+    public synchronized void disconnect() throws SQLException {
+        if (isConnected()) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    @Override
+    public synchronized void reconnect() throws SQLException {
+        if (isConnected()) {
+            disconnect();
+        }
+        connect();
+    }
+
+    /**
+     * Borrows a connection from the pool. The caller must close it to return it to the pool.
+     *
+     * @return a borrowed {@link Connection}, or {@code null} if not connected or no connection became free in time
+     */
+    @Override
+    public Connection getConnection() {
+        try {
+            return borrow();
+        } catch (final SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the current pool metrics.
+     *
+     * @return a {@link PoolStats} snapshot, or {@code null} if not connected
+     */
+    public PoolStats getPoolStats() {
+        final ConnectionPool pool = this.pool;
+        return pool == null ? null : pool.getStats();
+    }
+
+    @Override
+    public int getMaximumConnections() {
+        return settings.maximumPoolSize();
+    }
+
+    protected Connection borrow() throws SQLException {
+        final ConnectionPool pool = this.pool;
+        if (pool == null || pool.isClosed()) {
+            throw new SQLException("Not connected to the database.");
+        }
+        return pool.borrow();
+    }
+
+    @Override
+    public ResultSet executeQuery(final String query) throws SQLException {
+        try (final Connection connection = borrow();
+             final Statement statement = connection.createStatement();
+             final ResultSet resultSet = statement.executeQuery(query)) {
+            return copyOf(resultSet);
+        }
+    }
+
+    @Override
+    public int executeUpdate(final String query) throws SQLException {
+        try (final Connection connection = borrow();
+             final Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(query);
+        }
+    }
+
+    @Override
+    public ResultSet executePreparedQuery(final String query, final Object... parameters) throws SQLException {
+        try (final Connection connection = borrow();
+             final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                return copyOf(resultSet);
+            }
+        }
+    }
+
+    @Override
+    public <T> List<T> query(final String query, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        try (final Connection connection = borrow();
+             final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                final List<T> result = new ArrayList<>();
+                while (resultSet.next()) {
+                    result.add(mapper.map(resultSet));
+                }
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public <T> T queryOne(final String query, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        try (final Connection connection = borrow();
+             final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                return resultSet.next() ? mapper.map(resultSet) : null;
+            }
+        }
+    }
+
+    @Override
+    public <T> Stream<T> stream(final String query, final int fetchSize, final RowMapper<T> mapper, final Object... parameters) throws SQLException {
+        return CursorStreams.open(borrow(), query, fetchSize, mapper, parameters);
+    }
+
+    @Override
+    public <T> T inTransaction(final ConnectionCallback<T> callback) throws SQLException {
+        try (final Connection connection = borrow()) {
+            return runInTransaction(connection, callback);
+        }
+    }
+
+    @Override
+    public <T> T withConnection(final ConnectionCallback<T> callback) throws SQLException {
+        try (final Connection connection = borrow()) {
+            return callback.apply(connection);
+        }
+    }
+
+    @Override
+    public int executePreparedUpdate(final String query, final Object... parameters) throws SQLException {
+        try (final Connection connection = borrow();
+             final PreparedStatement ps = connection.prepareStatement(query)) {
+            bindParameters(ps, parameters);
+            return ps.executeUpdate();
+        }
+    }
+
+    @Override
+    public int[] executeBatchUpdate(final Iterable<String> queries) throws SQLException {
+        try (final Connection connection = borrow();
+             final Statement statement = connection.createStatement()) {
+            for (final String query : queries) {
+                statement.addBatch(query);
+            }
+            return statement.executeBatch();
+        }
+    }
+
+    @Override
+    public int[] executePreparedBatchUpdate(final String query, final Iterable<Object[]> batchParams) throws SQLException {
+        try (final Connection connection = borrow();
+             final PreparedStatement ps = connection.prepareStatement(query)) {
+            for (final Object[] params : batchParams) {
+                bindParameters(ps, params);
+                ps.addBatch();
+            }
+            return ps.executeBatch();
+        }
+    }
+
+    protected void runSchemaFile(final String path) throws SQLException, IOException {
+        final List<String> statements = SqlScript.split(SqlScript.load(path));
+
+        try (final Connection connection = borrow();
+             final Statement stmt = connection.createStatement()) {
+            for (final String query : statements) {
+                stmt.execute(query);
+            }
+        }
+    }
+
+    protected static <T> T runInTransaction(final Connection connection, final ConnectionCallback<T> callback) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            final T result = callback.apply(connection);
+            connection.commit();
+            return result;
+        } catch (final SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (final SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (final SQLException ignored) {
+                // A broken connection is discarded when it goes back to the pool
+            }
+        }
+    }
+
+    protected static void bindParameters(final PreparedStatement statement, final Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    private static ResultSet copyOf(final ResultSet resultSet) throws SQLException {
+        final CachedRowSet rowSet = ROW_SET_FACTORY.createCachedRowSet();
+        rowSet.populate(resultSet);
+        return rowSet;
+    }
+
+    private static RowSetFactory createRowSetFactory() {
+        try {
+            return RowSetProvider.newFactory();
+        } catch (final SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ru.ilezzov.moneta.lib.database.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An LRU cache of {@link PreparedStatement}s of a single physical connection, keyed by SQL text.
+ * Closing a cached statement only returns it to the cache, so the driver can keep
+ * the server-side prepared statement and skip parse and plan on the next call.
+ * <p>
+ * Not thread-safe: a connection is used by one borrower at a time.
+ */
+final class StatementCache {
+    private final ConnectionPool pool;
+    private final int maximumSize;
+    private final LinkedHashMap<String, Entry> entries;
+
+    StatementCache(final ConnectionPool pool, final int maximumSize) {
+        this.pool = pool;
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    PreparedStatement prepare(final Connection connection, final String sql) throws SQLException {
+        Entry cached = entries.get(sql);
+
+        if (cached != null && cached.broken) {
+            entries.remove(sql);
+            cached = null;
+        }
+
+        if (cached != null && !cached.inUse) {
+            pool.recordStatementCacheHit();
+            return cached.lease();
+        }
+
+        pool.recordStatementCacheMiss();
+
+        // The same SQL is already open in this lease: hand out a plain statement
+        if (cached != null) {
+            return connection.prepareStatement(sql);
+        }
+
+        final PreparedStatement statement = connection.prepareStatement(sql);
+        final Entry entry;
+        try {
+            entry = new Entry(statement);
+        } catch (final SQLException e) {
+            statement.close();
+            throw e;
+        }
+        entries.put(sql, entry);
+        evictEldest();
+
+        return entry.lease();
+    }
+
+    void closeAll() {
+        for (final Entry entry : entries.values()) {
+            entry.closeQuietly();
+        }
+        entries.clear();
+    }
+
+    private void evictEldest() {
+        final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while (entries.size() > maximumSize && iterator.hasNext()) {
+            final Entry eldest = iterator.next().getValue();
+
+            if (eldest.inUse) {
+                continue;
+            }
+
+            eldest.closeQuietly();
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final PreparedStatement statement;
+        private final int fetchSize;
+        private final int maxRows;
+        private final int queryTimeout;
+        private boolean inUse;
+        private boolean broken;
+
+        private Entry(final PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.fetchSize = statement.getFetchSize();
+            this.maxRows = statement.getMaxRows();
+            this.queryTimeout = statement.getQueryTimeout();
+        }
+
+        /**
+         * Undoes what a borrower may have left on the statement, so the next one gets it as freshly prepared.
+         * A statement that cannot be reset is closed and dropped from the cache.
+         */
+        private void release() {
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.setFetchSize(fetchSize);
+                statement.setMaxRows(maxRows);
+                statement.setQueryTimeout(queryTimeout);
+            } catch (final SQLException e) {
+                broken = true;
+                closeQuietly();
+            }
+            inUse = false;
+        }
+
+        private PreparedStatement lease() {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new Lease()
+            );
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (final SQLException ignored) {
+            }
+        }
+
+        private final class Lease implements InvocationHandler {
+            private boolean closed;
+
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!closed) {
+                            closed = true;
+                            release();
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return closed || statement.isClosed();
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return statement.toString();
+                    }
+                    default -> {
+                        if (closed) {
+                            throw new SQLException("Statement is closed.");
+                        }
+                    }
+                }
+
+                try {
+                    return method.invoke(statement, args);
+                } catch (final InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+}
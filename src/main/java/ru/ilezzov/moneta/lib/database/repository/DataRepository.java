@@ -1,16 +1,36 @@
 package ru.ilezzov.moneta.lib.database.repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public interface DataRepository<K, V> {
     CompletableFuture<V> get(K key);
 
+    /**
+     * Reads the given rows, serving the cached ones from memory and loading the rest with a single query.
+     *
+     * @param keys the keys, {@code null} keys are ignored
+     * @return the found rows by key, keys without a row are absent from the map
+     */
+    CompletableFuture<Map<K, V>> getMany(Collection<K> keys);
+
     CompletableFuture<List<V>> getAll(boolean addToCache);
 
     CompletableFuture<List<V>> getAll(boolean addToCache, LocalDateTime date);
 
+    /**
+     * Reads the rows created after {@code date} through a database cursor without caching them.
+     * The returned stream holds a database connection and must be closed.
+     *
+     * @param date      only rows created after this date are returned
+     * @param fetchSize how many rows are fetched per round trip
+     */
+    Stream<V> stream(LocalDateTime date, int fetchSize);
+
     CompletableFuture<Void> insert(V value);
 
     CompletableFuture<Void> save(V value);
@@ -0,0 +1,54 @@
+package ru.ilezzov.moneta.lib.database.repository;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Loads the entities of a repository cache with the loader of the repository, so concurrent misses of the same key
+ * share one load. A refresh keeps the cached instance while it has unsaved modifications, so they are still written
+ * behind and are not replaced by the older state of the database; clean entities are replaced by the fresh copy.
+ *
+ * @param <K> the key type
+ * @param <V> the entity type
+ */
+public final class EntityCacheLoader<K, V extends TrackedEntity> implements AsyncCacheLoader<K, V> {
+    private final Function<K, CompletableFuture<V>> loader;
+    private final Function<List<K>, CompletableFuture<Map<K, V>>> bulkLoader;
+
+    /**
+     * @param loader     reads one entity from the database off the calling thread, {@code null} if there is none
+     * @param bulkLoader reads the entities of the keys with one query off the calling thread, keys without an entity are absent
+     */
+    public EntityCacheLoader(final Function<K, CompletableFuture<V>> loader, final Function<List<K>, CompletableFuture<Map<K, V>>> bulkLoader) {
+        this.loader = loader;
+        this.bulkLoader = bulkLoader;
+    }
+
+    @Override
+    public CompletableFuture<V> asyncLoad(final K key, final Executor cacheExecutor) {
+        return loader.apply(key);
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> asyncLoadAll(final Iterable<? extends K> keys, final Executor cacheExecutor) {
+        final List<K> list = new ArrayList<>();
+        keys.forEach(list::add);
+        return bulkLoader.apply(list);
+    }
+
+    @Override
+    public CompletableFuture<V> asyncReload(final K key, final V oldValue, final Executor cacheExecutor) {
+        if (oldValue.isDirty()) {
+            return CompletableFuture.completedFuture(oldValue);
+        }
+
+        // Modified while the fresh copy was read
+        return asyncLoad(key, cacheExecutor).thenApply(fresh -> oldValue.isDirty() ? oldValue : fresh);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ilezzov.moneta.lib.database.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the cached entities. Counts the modifications of the persisted fields,
+ * so the repositories write back only the entities that changed since they were loaded or last saved.
+ */
+public abstract class TrackedEntity {
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong savedVersion = new AtomicLong();
+
+    /**
+     * Called by the setters of the fields that {@link DataRepository#save} writes.
+     */
+    protected void markDirty() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return whether the entity was modified after it was last written to or read from the database
+     */
+    public boolean isDirty() {
+        return version.get() != savedVersion.get();
+    }
+
+    /**
+     * @return the modification counter, take it before reading the fields to write
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Records that the state with the given version is in the database.
+     * Modifications made after that version keep the entity dirty.
+     */
+    public void markSaved(final long version) {
+        savedVersion.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * Records that the current state is in the database, e.g. right after the entity was inserted.
+     */
+    public void markClean() {
+        markSaved(version.get());
+    }
+}
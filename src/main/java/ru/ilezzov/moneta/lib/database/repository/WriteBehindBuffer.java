@@ -0,0 +1,89 @@
+package ru.ilezzov.moneta.lib.database.repository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the modified entities of a repository and writes them in one batch.
+ * Evicted entities are parked here instead of being saved one by one, clean ones are dropped right away.
+ *
+ * @param <V> the entity type
+ */
+public final class WriteBehindBuffer<V extends TrackedEntity> {
+    private final Queue<V> evicted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Keeps the evicted entity until the next {@link #flush} if it has unsaved modifications.
+     */
+    public void evicted(final V value) {
+        if (value != null && value.isDirty()) {
+            evicted.add(value);
+        }
+    }
+
+    /**
+     * Writes the dirty entities among the evicted and the given cached ones with a single batch, each entity once
+     * even if it was parked and is cached again, e.g. after a refresh kept the modified instance.
+     * Entities modified while the batch was running stay dirty. If the batch fails the evicted entities are kept for the next flush.
+     *
+     * @param cached the entities still in the cache
+     * @param writer writes the batch, usually with {@link ru.ilezzov.moneta.lib.database.SQLDatabase#executePreparedBatchUpdate}
+     * @return the number of written entities
+     */
+    public synchronized int flush(final Collection<V> cached, final BatchWriter<V> writer) throws SQLException {
+        final List<V> evictedDirty = new ArrayList<>();
+        final List<V> dirty = new ArrayList<>();
+        final List<Long> versions = new ArrayList<>();
+        final Set<V> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        V value;
+        while ((value = evicted.poll()) != null) {
+            evictedDirty.add(value);
+            if (seen.add(value)) {
+                collect(value, dirty, versions);
+            }
+        }
+        for (final V cachedValue : cached) {
+            if (seen.add(cachedValue)) {
+                collect(cachedValue, dirty, versions);
+            }
+        }
+
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            writer.write(dirty);
+        } catch (final SQLException | RuntimeException e) {
+            evicted.addAll(evictedDirty);
+            throw e;
+        }
+
+        for (int i = 0; i < dirty.size(); i++) {
+            dirty.get(i).markSaved(versions.get(i));
+        }
+        return dirty.size();
+    }
+
+    private static <V extends TrackedEntity> void collect(final V value, final List<V> dirty, final List<Long> versions) {
+        final long version = value.getVersion();
+
+        if (value.isDirty()) {
+            dirty.add(value);
+            versions.add(version);
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchWriter<V> {
+        void write(List<V> values) throws SQLException;
+    }
+}
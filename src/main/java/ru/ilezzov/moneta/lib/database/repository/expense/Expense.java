@@ -1,12 +1,13 @@
 package ru.ilezzov.moneta.lib.database.repository.expense;
 
+import ru.ilezzov.moneta.lib.database.repository.TrackedEntity;
 import ru.ilezzov.moneta.lib.enums.ExpenseCategory;
 import ru.ilezzov.moneta.lib.utils.DateUtil;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
 
-public class Expense {
+public class Expense extends TrackedEntity {
     private long id;
     private LocalDateTime date;
 
@@ -35,19 +36,19 @@ public class Expense {
     public void setId(long id) { this.id = id; }
 
     public LocalDateTime getDate() { return date; }
-    public void setDate(LocalDateTime date) { this.date = date; }
+    public void setDate(LocalDateTime date) { this.date = date; markDirty(); }
 
     public ExpenseCategory getCategory() { return category; }
-    public void setCategory(ExpenseCategory category) { this.category = category; }
+    public void setCategory(ExpenseCategory category) { this.category = category; markDirty(); }
 
     public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    public void setDescription(String description) { this.description = description; markDirty(); }
 
     public double getAmount() { return amount; }
-    public void setAmount(double amount) { this.amount = amount; }
+    public void setAmount(double amount) { this.amount = amount; markDirty(); }
 
     public String getComment() { return comment; }
-    public void setComment(String comment) { this.comment = comment; }
+    public void setComment(String comment) { this.comment = comment; markDirty(); }
 
     @Override
     public String toString() {
@@ -1,70 +1,153 @@
 package ru.ilezzov.moneta.lib.database.repository.expense;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import ru.ilezzov.moneta.lib.database.BatchLoader;
+import ru.ilezzov.moneta.lib.database.BatchLoaderSettings;
+import ru.ilezzov.moneta.lib.database.BulkInsert;
+import ru.ilezzov.moneta.lib.database.CombinedStatsQuery;
+import ru.ilezzov.moneta.lib.database.GroupCommitQueue;
+import ru.ilezzov.moneta.lib.database.GroupCommitSettings;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SQLDialect;
+import ru.ilezzov.moneta.lib.database.StatsQuery;
 import ru.ilezzov.moneta.lib.database.repository.DataRepository;
+import ru.ilezzov.moneta.lib.database.repository.EntityCacheLoader;
+import ru.ilezzov.moneta.lib.database.repository.WriteBehindBuffer;
 import ru.ilezzov.moneta.lib.enums.ExpenseCategory;
+import ru.ilezzov.moneta.lib.enums.Lane;
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class ExpenseRepository implements DataRepository<Long, Expense> {
+    private static final String GENERATED_COLUMNS = "id, expense_date";
+    private static final List<String> BULK_COLUMNS = List.of("category", "description", "amount", "comment");
+    private static final ExpenseStats EMPTY_STATS = new ExpenseStats(0);
+
     private final SQLDatabase database;
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final Executor analyticsExecutor;
+    private final AsyncLoadingCache<Long, Expense> asyncCache;
     private final Cache<Long, Expense> cache;
+    private final WriteBehindBuffer<Expense> writeBehind = new WriteBehindBuffer<>();
+    private volatile BatchLoader<Long, Expense> batchLoader;
+    private volatile GroupCommitQueue<Expense> groupCommit;
 
     public ExpenseRepository(final SQLDatabase database) {
+        this(database, ExecutorUtil.defaultExecutor());
+    }
+
+    /**
+     * @param executor runs the blocking database calls of the repository
+     */
+    public ExpenseRepository(final SQLDatabase database, final Executor executor) {
+        this(database, executor, executor, executor);
+    }
+
+    /**
+     * @param lanes runs point reads, writes and full-table reads and stats on their own {@link LaneScheduler} lanes
+     */
+    public ExpenseRepository(final SQLDatabase database, final LaneScheduler lanes) {
+        this(database, lanes.executor(Lane.READ), lanes.executor(Lane.WRITE), lanes.executor(Lane.ANALYTICS));
+    }
+
+    private ExpenseRepository(final SQLDatabase database, final Executor readExecutor, final Executor writeExecutor, final Executor analyticsExecutor) {
         this.database = database;
-        this.cache = Caffeine.newBuilder()
+        this.readExecutor = readExecutor;
+        this.writeExecutor = writeExecutor;
+        this.analyticsExecutor = analyticsExecutor;
+        this.asyncCache = Caffeine.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(5, TimeUnit.MINUTES)
+                .refreshAfterWrite(4, TimeUnit.MINUTES)
                 .removalListener((Long value, Expense Expense, RemovalCause removalCause) -> {
-                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE) {
-                        save(Expense);
+                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE || removalCause == RemovalCause.REPLACED) {
+                        writeBehind.evicted(Expense);
                     }
                 })
-                .build();
+                .buildAsync(new EntityCacheLoader<>(this::loadAsync, this::loadManyAsync));
+        this.cache = asyncCache.synchronous();
     }
 
     @Override
     public CompletableFuture<Expense> get(final Long key) {
-        final Expense Expense = cache.getIfPresent(key);
-
-        if (Expense != null) {
-            return CompletableFuture.completedFuture(Expense);
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        return CompletableFuture.supplyAsync(() -> loadFromDatabase(key));
+        return asyncCache.get(key);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, Expense>> getMany(final Collection<Long> keys) {
+        return asyncCache.getAll(keys.stream().filter(Objects::nonNull).distinct().toList());
     }
 
     private Expense loadFromDatabase(final Long id) {
-        if (id == null) {
+        final String sql = "SELECT * FROM expenses WHERE id = ?";
+
+        try {
+            return database.queryOne(sql, this::getExpenseFromResultSet, id);
+        } catch (final SQLException e) {
             return null;
         }
+    }
 
-        final String sql = "SELECT * FROM expenses WHERE id = ?";
+    /**
+     * Coalesces the loads of uncached expenses that arrive within a short window into one {@code WHERE id = ANY(?)} query.
+     */
+    public void enableBatchLoading(final BatchLoaderSettings settings) {
+        this.batchLoader = new BatchLoader<>(settings, this::loadAllFromDatabase, readExecutor);
+    }
 
-        try (final ResultSet resultSet = database.executePreparedQuery(sql, id)) {
-            if (!resultSet.next()) {
-                return null;
-            }
+    private CompletableFuture<Expense> loadAsync(final Long id) {
+        final BatchLoader<Long, Expense> loader = this.batchLoader;
 
-            final Expense expense = getExpenseFromResultSet(id, resultSet);
+        if (loader != null) {
+            return loader.load(id);
+        }
+        return CompletableFuture.supplyAsync(() -> loadFromDatabase(id), readExecutor);
+    }
 
-            this.cache.put(id, expense);
-            return expense;
-        } catch (final SQLException e) {
-            return null;
+    private Map<Long, Expense> loadAllFromDatabase(final List<Long> ids) throws SQLException {
+        final String sql = "SELECT * FROM expenses WHERE id = ANY(?)";
+        final Map<Long, Expense> expenses = new HashMap<>();
+
+        for (final Expense expense : database.query(sql, this::getExpenseFromResultSet, (Object) ids.toArray(new Long[0]))) {
+            expenses.put(expense.getId(), expense);
         }
+        return expenses;
+    }
+
+    private CompletableFuture<Map<Long, Expense>> loadManyAsync(final List<Long> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadAllFromDatabase(ids);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, readExecutor);
     }
 
     @Override
@@ -78,34 +161,49 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
            final String sql = "SELECT * FROM expenses WHERE expense_date > ?";
            final Object[] params = new Object[]{date};
 
-           try(final ResultSet resultSet = database.executePreparedQuery(sql, params)) {
-               final List<Expense> expenses = new ArrayList<>();
-
-               while (resultSet.next()) {
-                   final long id = resultSet.getLong("id");
-                   final Expense expense = getExpenseFromResultSet(id, resultSet);
+           try {
+               final List<Expense> expenses = database.query(sql, this::getExpenseFromResultSet, params);
 
-                   if (addToCache) {
-                       this.cache.put(id, expense);
+               if (addToCache) {
+                   for (final Expense expense : expenses) {
+                       this.cache.put(expense.getId(), expense);
                    }
-                   expenses.add(expense);
                }
 
                return expenses;
            } catch (SQLException e) {
                return null;
            }
-       });
+       }, analyticsExecutor);
+    }
+
+    @Override
+    public Stream<Expense> stream(final LocalDateTime date, final int fetchSize) {
+        final String sql = "SELECT * FROM expenses WHERE expense_date > ?";
+
+        try {
+            return database.stream(sql, fetchSize, this::getExpenseFromResultSet, date);
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public CompletableFuture<Void> insert(final Expense value) {
+        final GroupCommitQueue<Expense> queue = this.groupCommit;
+        if (queue != null && value != null) {
+            return queue.submit(value).thenAccept(inserted -> {});
+        }
+
         return CompletableFuture.runAsync(() -> {
             if (value == null) {
                 return;
             }
 
-            final String sql = "INSERT INTO  expenses (category, description, amount, comment) VALUES (?, ?, ?, ?) RETURNING id, expense_date";
+            final String sql = database.getDialect().returning(
+                    "INSERT INTO expenses (category, description, amount, comment) VALUES (?, ?, ?, ?)",
+                    GENERATED_COLUMNS
+            );
 
             final Object[] params = {
                     value.getCategory().getCategory(),
@@ -115,23 +213,97 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
             };
 
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
-
-                if (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final LocalDateTime date = resultSet.getTimestamp("expense_date").toLocalDateTime();
-
-                    value.setId(id);
-                    value.setDate(date);
+                final Expense inserted = database.queryOne(sql, resultSet -> setGeneratedColumns(value, resultSet), params);
 
-                    cache.put(id, value);
+                if (inserted != null) {
+                    cache.put(inserted.getId(), inserted);
                 }
             } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, writeExecutor);
+    }
 
+    /**
+     * Routes {@link #insert} through a {@link GroupCommitQueue}: the expenses are inserted by a single writer
+     * in groups sharing one transaction, and the returned futures complete once the group is committed.
+     */
+    public void enableGroupCommit(final GroupCommitSettings settings) {
+        this.groupCommit = new GroupCommitQueue<>("expenses", database, settings, new GroupCommitQueue.GroupWriter<>() {
+            @Override
+            public void write(final Connection connection, final List<Expense> values) throws SQLException {
+                final Iterator<Expense> pending = values.iterator();
+                BulkInsert.insertReturning(connection, database.getDialect(), "expenses", BULK_COLUMNS, getRows(values), GENERATED_COLUMNS,
+                        resultSet -> setGeneratedColumns(pending.next(), resultSet));
+            }
+
+            @Override
+            public void committed(final List<Expense> values) {
+                for (final Expense value : values) {
+                    cache.put(value.getId(), value);
+                }
             }
         });
     }
 
+    /**
+     * Commits the queued expenses and switches {@link #insert} back to one statement per call.
+     */
+    public void disableGroupCommit() {
+        final GroupCommitQueue<Expense> queue = this.groupCommit;
+
+        if (queue != null) {
+            this.groupCommit = null;
+            queue.close();
+        }
+    }
+
+    /**
+     * Inserts the expenses with multi-row INSERT statements of up to {@link BulkInsert#MAX_ROWS_PER_STATEMENT} rows,
+     * reading the generated columns back and caching the inserted expenses.
+     * Every statement runs in its own transaction; the inserts stop at the first failed one, so the expenses that were not inserted keep the id 0.
+     *
+     * @return the same list of expenses
+     */
+    public CompletableFuture<List<Expense>> insertAll(final List<Expense> values) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (int from = 0; from < values.size(); from += BulkInsert.MAX_ROWS_PER_STATEMENT) {
+                final List<Expense> chunk = values.subList(from, Math.min(values.size(), from + BulkInsert.MAX_ROWS_PER_STATEMENT));
+                final Iterator<Expense> pending = chunk.iterator();
+
+                try {
+                    database.inTransaction(connection -> {
+                        BulkInsert.insertReturning(connection, database.getDialect(), "expenses", BULK_COLUMNS, getRows(chunk), GENERATED_COLUMNS,
+                                resultSet -> setGeneratedColumns(pending.next(), resultSet));
+                        return null;
+                    });
+                } catch (final SQLException e) {
+                    e.printStackTrace();
+                    // The chunk was rolled back, ids read before the failure are not valid
+                    for (final Expense value : chunk) {
+                        value.setId(0);
+                    }
+                    break;
+                }
+
+                for (final Expense value : chunk) {
+                    cache.put(value.getId(), value);
+                }
+            }
+            return values;
+        }, writeExecutor);
+    }
+
+    /**
+     * Inserts the expenses on the given connection using the fastest path of the dialect (COPY on PostgreSQL).
+     * Ids and dates are not read back and the expenses are not cached.
+     *
+     * @return the number of inserted rows
+     */
+    public long bulkInsert(final Connection connection, final List<Expense> values) throws SQLException {
+        return BulkInsert.into(connection, database.getDialect(), "expenses", BULK_COLUMNS, getRows(values));
+    }
+
     @Override
     public CompletableFuture<Void> save(final Expense value) {
         return CompletableFuture.runAsync(() -> {
@@ -149,6 +321,7 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
                     WHERE id = ?;
                     """;
 
+            final long version = value.getVersion();
             final Object[] params = {
                     value.getDate(),
                     value.getCategory().getCategory(),
@@ -160,10 +333,11 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
 
             try {
                 database.executePreparedUpdate(sql, params);
+                value.markSaved(version);
             } catch (final SQLException e) {
 
             }
-        });
+        }, writeExecutor);
     }
 
     @Override
@@ -177,23 +351,20 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
                         amount = ?,
                         comment = ?
                     WHERE id = ?;
-                    """;;
-
-            final Map<Long, Expense> map = this.cache.asMap();
-            final List<Object[]> batchParams = getObjects(map);
+                    """;
 
             try {
-                database.executePreparedBatchUpdate(sql, batchParams);
+                writeBehind.flush(cache.asMap().values(), values -> database.executePreparedBatchUpdate(sql, getObjects(values)));
             } catch (final SQLException e) {
-
+                e.printStackTrace();
             }
-        });
+        }, writeExecutor);
     }
 
-    private static List<Object[]> getObjects(final Map<Long, Expense> map) {
-        final List<Object[]> batchParams = new ArrayList<>(map.size());
+    private static List<Object[]> getObjects(final List<Expense> values) {
+        final List<Object[]> batchParams = new ArrayList<>(values.size());
 
-        for (final Expense value: map.values()) {
+        for (final Expense value: values) {
             final Object[] params = {
                     value.getDate(),
                     value.getCategory().getCategory(),
@@ -208,65 +379,79 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
     }
 
     public CompletableFuture<ExpenseStats> getExpenseStatsByDate(final LocalDate start, final LocalDate end) {
-        return CompletableFuture.supplyAsync(() ->{
-            final String sql = "SELECT COALESCE(SUM(amount), 0) AS total_amount FROM expenses WHERE expense_date >= ? AND expense_date < ?;";
-
-            final Object[] params = {
-                    Timestamp.valueOf(start.atStartOfDay()),
-                    Timestamp.valueOf(end.atStartOfDay())
-            };
-
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
-
-                if (!resultSet.next()) {
-                    return null;
-                }
-
-                final double totalAmount = resultSet.getDouble("total_amount");
-                return new ExpenseStats(totalAmount);
-
+                return statsQuery(database.getDialect(), start, end, null).total(database, ExpenseRepository::getExpenseStatsFromResultSet);
             } catch (SQLException e) {
                 return null;
             }
-        });
+        }, analyticsExecutor);
     }
 
-    public CompletableFuture<List<ExpenseStats>> getExpenseStatsGroupByMonth(final int year) {
+    /**
+     * Expense stats of the days from {@code start} inclusive to {@code end} exclusive, grouped by bucket.
+     *
+     * @return one entry per bucket in date order, empty buckets included
+     */
+    public CompletableFuture<List<ExpenseStats>> getExpenseStatsGroupBy(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
         return CompletableFuture.supplyAsync(() -> {
-            final String sql = """
-            SELECT m.month,
-                   COALESCE(e.total_amount, 0) AS total_amount
-            FROM generate_series(1,12) AS m(month)
-            LEFT JOIN (
-                SELECT EXTRACT(MONTH FROM expense_date) AS month,
-                       SUM(amount) AS total_amount
-                FROM expenses
-                WHERE EXTRACT(YEAR FROM expense_date) = ?
-                GROUP BY month
-            ) e ON e.month = m.month
-            ORDER BY m.month;
-            """;
-
-            final Object[] params = { year };
-            final List<ExpenseStats> result = new ArrayList<>();
-
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
+                return statsQuery(database.getDialect(), start, end, bucket).buckets(database, ExpenseRepository::getExpenseStatsFromResultSet, EMPTY_STATS);
+            } catch (SQLException e) {
+                return new ArrayList<>();
+            }
+        }, analyticsExecutor);
+    }
 
-                while (resultSet.next()) {
-                    final double totalAmount = resultSet.getDouble("total_amount");
-                    result.add(new ExpenseStats(totalAmount));
-                }
+    public CompletableFuture<List<ExpenseStats>> getExpenseStatsGroupByMonth(final int year) {
+        return getExpenseStatsGroupBy(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1), StatsBucket.MONTH);
+    }
 
-            } catch (SQLException e) {
+    /**
+     * Recomputes the {@code expenses_monthly} rollup from the expenses table, e.g. after the expenses were changed with triggers disabled.
+     * Writes to the expenses wait until the rebuild commits. Does nothing on H2, which has no rollup.
+     */
+    public CompletableFuture<Void> rebuildMonthlyRollup() {
+        return CompletableFuture.runAsync(() -> {
+            if (database.getDialect() != SQLDialect.POSTGRESQL) {
+                return;
             }
 
-            return result;
-        });
+            try {
+                database.queryOne("SELECT moneta_rebuild_expenses_monthly()", resultSet -> null);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, analyticsExecutor);
+    }
+
+    /**
+     * Periods of whole months are read from the {@code expenses_monthly} rollup on PostgreSQL, the rest from the expenses.
+     * The query can run alone or in a {@link CombinedStatsQuery} with the stats of other tables.
+     *
+     * @param bucket the buckets to group by, {@code null} for the total of the period
+     */
+    public static StatsQuery statsQuery(final SQLDialect dialect, final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        if (dialect == SQLDialect.POSTGRESQL && StatsQuery.isMonthAligned(start, end, bucket)) {
+            return StatsQuery.from("expenses_monthly", "month")
+                    .sum("amount", "total_amount")
+                    .between(start, end)
+                    .groupBy(bucket);
+        }
+
+        return StatsQuery.from("expenses", "expense_date")
+                .sum("amount", "total_amount")
+                .between(start, end)
+                .groupBy(bucket);
+    }
+
+    public static ExpenseStats getExpenseStatsFromResultSet(final ResultSet resultSet) throws SQLException {
+        final double totalAmount = resultSet.getDouble("total_amount");
+        return new ExpenseStats(totalAmount);
     }
 
-    private Expense getExpenseFromResultSet(final long id, final ResultSet resultSet) throws SQLException {
+    private Expense getExpenseFromResultSet(final ResultSet resultSet) throws SQLException {
+        final long id = resultSet.getLong("id");
         final LocalDateTime date = resultSet.getTimestamp("expense_date").toLocalDateTime();
         final ExpenseCategory category = ExpenseCategory.parseCategory(resultSet.getString("category"));
         final String description = resultSet.getString("description");
@@ -282,4 +467,25 @@ public class ExpenseRepository implements DataRepository<Long, Expense> {
                 comment
         );
     }
+
+    private List<Object[]> getRows(final List<Expense> values) {
+        final List<Object[]> rows = new ArrayList<>(values.size());
+
+        for (final Expense value : values) {
+            rows.add(new Object[]{
+                    value.getCategory().getCategory(),
+                    value.getDescription(),
+                    value.getAmount(),
+                    value.getComment()
+            });
+        }
+        return rows;
+    }
+
+    private Expense setGeneratedColumns(final Expense value, final ResultSet resultSet) throws SQLException {
+        value.setId(resultSet.getLong("id"));
+        value.setDate(resultSet.getTimestamp("expense_date").toLocalDateTime());
+        value.markClean();
+        return value;
+    }
 }
@@ -12,7 +12,7 @@ public class LastExportRepository {
     private final SQLDatabase database;
 
     private final String SQL_SELECT = "SELECT * FROM last_export";
-    private final String SQL_INSERT = "INSERT INTO last_export (export_date) VALUES (?) RETURNING id";
+    private final String SQL_INSERT = "INSERT INTO last_export (export_date) VALUES (?)";
     private final String SQL_UPDATE = "UPDATE last_export SET export_date = ? WHERE id = ?";
 
     public LastExportRepository(final SQLDatabase database) {
@@ -21,12 +21,16 @@ public class LastExportRepository {
 
     public LastExport getLastExportDate() {
         if (lastExport == null) {
-            try (final ResultSet resultSet = database.executeQuery(SQL_SELECT)) {
-                if (resultSet.next()) {
+            try {
+                final LastExport export = database.queryOne(SQL_SELECT, resultSet -> {
                     final long id = resultSet.getLong(1);
-                    final LocalDateTime localDateTime =  resultSet.getTimestamp("last_export_date").toLocalDateTime();
+                    final LocalDateTime localDateTime =  resultSet.getTimestamp("export_date").toLocalDateTime();
 
-                    this.lastExport =  new LastExport(id, localDateTime);
+                    return new LastExport(id, localDateTime);
+                });
+
+                if (export != null) {
+                    this.lastExport = export;
                     return this.lastExport;
                 }
                 final LocalDateTime localDateTime = LocalDateTime.MIN;
@@ -41,13 +45,14 @@ public class LastExportRepository {
 
     private LastExport insert(final LocalDateTime lastExportDate) {
         final Object[] args = new Object[]{lastExportDate};
-        try (final ResultSet resultSet = database.executePreparedQuery(SQL_INSERT, args)) {
+        final String sql = database.getDialect().returning(SQL_INSERT, "id");
+        try {
+            final Long id = database.queryOne(sql, resultSet -> resultSet.getLong("id"), args);
 
-            if (resultSet.next()) {
-                final long id = resultSet.getLong("id");
+            if (id != null) {
                 this.lastExport = new LastExport(id, lastExportDate);
                 return this.lastExport;
-            };
+            }
 
             return null;
         } catch (final SQLException e) {
@@ -0,0 +1,232 @@
+package ru.ilezzov.moneta.lib.database.repository.product;
+
+import ru.ilezzov.moneta.lib.database.SQLDatabase;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Owns the stock of the products.
+ * Stock changes are recorded as per-product deltas in lock-free striped counters and a background flusher
+ * coalesces them into one set-based {@code UPDATE products SET stock = stock + delta} per interval,
+ * so a hot product never has concurrent writers competing for its row lock.
+ * The stock of the cached products is adjusted immediately, the database catches up on the next flush.
+ */
+public class InventoryLedger implements AutoCloseable {
+    private final SQLDatabase database;
+    private final ProductRepository repository;
+    private final Map<Long, StripedCounter> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private final Object drainLock = new Object();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private volatile Map<Long, Integer> inFlight = Map.of();
+
+    InventoryLedger(final SQLDatabase database, final ProductRepository repository, final long flushIntervalMillis) {
+        this.database = database;
+        this.repository = repository;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "moneta-inventory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Changes the stock of the product by the delta.
+     *
+     * @param product the product, its cached stock is updated right away
+     * @param delta   the stock change, negative values reduce the stock
+     */
+    public void record(final Product product, final int delta) {
+        product.increaseStock(delta);
+        record(product.getId(), delta);
+    }
+
+    /**
+     * Sets the stock of the product to the value.
+     * The change is queued as the difference to the stock it replaces, so changes recorded concurrently are applied
+     * either before or after it, both in memory and in the database.
+     *
+     * @param product the product, its cached stock is updated right away
+     * @param stock   the new stock
+     */
+    public void setStock(final Product product, final int stock) {
+        int current;
+        do {
+            current = product.getStock();
+        } while (!product.compareAndSetStock(current, stock));
+
+        record(product.getId(), stock - current);
+    }
+
+    /**
+     * Queues a stock change for a product without touching any cached object.
+     */
+    public void record(final long productId, final int delta) {
+        if (delta != 0) {
+            pending.computeIfAbsent(productId, id -> new StripedCounter()).add(delta);
+        }
+    }
+
+    /**
+     * @return the stock change of the product that is not in the database yet
+     */
+    public int pending(final long productId) {
+        synchronized (drainLock) {
+            final StripedCounter counter = pending.get(productId);
+            final int queued = counter == null ? 0 : (int) counter.sum();
+            return queued + inFlight.getOrDefault(productId, 0);
+        }
+    }
+
+    /**
+     * Runs a query whose rows add {@link #pending} to the stock read from the database.
+     * A row read while a flush commits may already hold the deltas still counted as pending, so a query that
+     * overlapped a flush is run again while flushes wait.
+     */
+    <T> T read(final StockRead<T> query) throws SQLException {
+        final long before = flushes.get();
+
+        if ((before & 1) == 0) {
+            final T result = query.read();
+
+            if (flushes.get() == before) {
+                return result;
+            }
+        }
+
+        synchronized (this) {
+            return query.read();
+        }
+    }
+
+    /**
+     * Writes all queued deltas to the database in one transaction.
+     * If the write fails the deltas are queued again, so no change is lost.
+     */
+    public synchronized void flush() throws SQLException {
+        if (!hasPending()) {
+            return;
+        }
+
+        final Map<Long, Integer> deltas = new HashMap<>();
+
+        // Odd until the deltas are committed and no longer counted as in flight
+        flushes.incrementAndGet();
+        try {
+            synchronized (drainLock) {
+                for (final Map.Entry<Long, StripedCounter> entry : pending.entrySet()) {
+                    final long delta = entry.getValue().drain();
+
+                    if (delta != 0) {
+                        deltas.put(entry.getKey(), (int) delta);
+                    }
+                }
+                inFlight = deltas;
+            }
+
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            try {
+                database.inTransaction(connection -> {
+                    repository.applyStockDeltas(connection, deltas);
+                    return null;
+                });
+            } catch (final Throwable e) {
+                synchronized (drainLock) {
+                    inFlight = Map.of();
+                    deltas.forEach(this::record);
+                }
+                throw e;
+            }
+
+            synchronized (drainLock) {
+                inFlight = Map.of();
+            }
+        } finally {
+            flushes.incrementAndGet();
+        }
+    }
+
+    private boolean hasPending() {
+        for (final StripedCounter counter : pending.values()) {
+            if (counter.sum() != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final SQLException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes the remaining deltas.
+     */
+    @Override
+    public void close() throws SQLException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * A database read that maps products with {@link #pending}.
+     */
+    @FunctionalInterface
+    interface StockRead<T> {
+        T read() throws SQLException;
+    }
+
+    /**
+     * A counter split into cache-line padded cells picked by the calling thread, drained atomically cell by cell.
+     */
+    private static final class StripedCounter {
+        private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) << 1;
+        private static final int PADDING = 8;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        void add(final long delta) {
+            final int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            cells.getAndAdd(stripe * PADDING, delta);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+
+        long drain() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.getAndSet(i * PADDING, 0);
+            }
+            return sum;
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package ru.ilezzov.moneta.lib.database.repository.product;
 
+import ru.ilezzov.moneta.lib.database.repository.TrackedEntity;
 import ru.ilezzov.moneta.lib.enums.ProductCategory;
 import ru.ilezzov.moneta.lib.enums.ProductStatus;
 import ru.ilezzov.moneta.lib.enums.ProductUnit;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class Product {
+public class Product extends TrackedEntity {
     private long id;
     private String name;
     private ProductCategory category;
@@ -14,7 +16,7 @@ public class Product {
     private double retailPrice;
     private ProductUnit unit;
     private String supplier;
-    private int stock;
+    private final AtomicInteger stock;
     private int minimum;
     private ProductStatus status;
 
@@ -27,7 +29,7 @@ public class Product {
         this.retailPrice = retailPrice;
         this.unit = unit;
         this.supplier = supplier;
-        this.stock = stock;
+        this.stock = new AtomicInteger(stock);
         this.minimum = minimum;
         this.status = status;
     }
@@ -39,7 +41,7 @@ public class Product {
         this.retailPrice = retailPrice;
         this.unit = unit;
         this.supplier = supplier;
-        this.stock = stock;
+        this.stock = new AtomicInteger(stock);
         this.minimum = minimum;
         this.status = status;
     }
@@ -58,6 +60,7 @@ public class Product {
 
     public void setName(String name) {
         this.name = name;
+        markDirty();
     }
 
     public ProductCategory getCategory() {
@@ -66,6 +69,7 @@ public class Product {
 
     public void setCategory(ProductCategory category) {
         this.category = category;
+        markDirty();
     }
 
     public double getCostPrice() {
@@ -74,6 +78,7 @@ public class Product {
 
     public void setCostPrice(double costPrice) {
         this.costPrice = costPrice;
+        markDirty();
     }
 
     public double getRetailPrice() {
@@ -82,6 +87,7 @@ public class Product {
 
     public void setRetailPrice(double retailPrice) {
         this.retailPrice = retailPrice;
+        markDirty();
     }
 
     public ProductUnit getUnit() {
@@ -90,6 +96,7 @@ public class Product {
 
     public void setUnit(ProductUnit unit) {
         this.unit = unit;
+        markDirty();
     }
 
     public String getSupplier() {
@@ -98,22 +105,25 @@ public class Product {
 
     public void setSupplier(String supplier) {
         this.supplier = supplier;
+        markDirty();
     }
 
     public int getStock() {
-        return stock;
+        return stock.get();
     }
 
-    public void setStock(int stock) {
-        this.stock = stock;
+    /**
+     * Changes only this object, the stock is written by {@link InventoryLedger#record} and {@link InventoryLedger#setStock}.
+     */
+    void increaseStock(final int delta) {
+        this.stock.addAndGet(delta);
     }
 
-    public void reduceStock(int stock) {
-        this.stock -= stock;
-    }
-
-    public void increaseStock(int stock) {
-        this.stock += stock;
+    /**
+     * @return whether the stock still equalled {@code expected} and was replaced
+     */
+    boolean compareAndSetStock(final int expected, final int stock) {
+        return this.stock.compareAndSet(expected, stock);
     }
 
     public int getMinimum() {
@@ -122,6 +132,7 @@ public class Product {
 
     public void setMinimum(int minimum) {
         this.minimum = minimum;
+        markDirty();
     }
 
     public ProductStatus getStatus() {
@@ -130,6 +141,7 @@ public class Product {
 
     public void setStatus(ProductStatus status) {
         this.status = status;
+        markDirty();
     }
 
     @Override
@@ -155,7 +167,7 @@ public class Product {
                 supplier,
                 costPrice,
                 retailPrice,
-                stock,
+                stock.get(),
                 minimum,
                 status.getStatus()
         );
@@ -165,7 +177,7 @@ public class Product {
     public boolean equals(final Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         final Product product = (Product) o;
-        return id == product.id && Double.compare(costPrice, product.costPrice) == 0 && Double.compare(retailPrice, product.retailPrice) == 0 && stock == product.stock && minimum == product.minimum && Objects.equals(name, product.name) && category == product.category && unit == product.unit && Objects.equals(supplier, product.supplier) && status == product.status;
+        return id == product.id && Double.compare(costPrice, product.costPrice) == 0 && Double.compare(retailPrice, product.retailPrice) == 0 && stock.get() == product.stock.get() && minimum == product.minimum && Objects.equals(name, product.name) && category == product.category && unit == product.unit && Objects.equals(supplier, product.supplier) && status == product.status;
     }
 
     @Override
@@ -0,0 +1,66 @@
+package ru.ilezzov.moneta.lib.database.repository.product;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of all products by id and by name.
+ * A change builds a new snapshot, so readers holding the current one never lock and never see a partial update.
+ */
+final class ProductCatalog {
+    private final Map<Long, Product> byId;
+    private final Map<String, Product> byName;
+
+    ProductCatalog(final Collection<Product> products) {
+        final Map<Long, Product> ids = new HashMap<>();
+        final Map<String, Product> names = new HashMap<>();
+
+        for (final Product product : products) {
+            ids.put(product.getId(), product);
+
+            if (product.getName() != null) {
+                names.put(product.getName(), product);
+            }
+        }
+        this.byId = Map.copyOf(ids);
+        this.byName = Map.copyOf(names);
+    }
+
+    private ProductCatalog(final Map<Long, Product> byId, final Map<String, Product> byName) {
+        this.byId = byId;
+        this.byName = byName;
+    }
+
+    Product get(final long id) {
+        return byId.get(id);
+    }
+
+    Product get(final String name) {
+        return byName.get(name);
+    }
+
+    Collection<Product> products() {
+        return byId.values();
+    }
+
+    /**
+     * @return a snapshot with the product under its id and its current name, {@code this} if it is there already
+     */
+    ProductCatalog with(final Product product) {
+        if (byId.get(product.getId()) == product && (product.getName() == null || byName.get(product.getName()) == product)) {
+            return this;
+        }
+
+        final Map<Long, Product> ids = new HashMap<>(byId);
+        final Map<String, Product> names = new HashMap<>(byName);
+
+        ids.put(product.getId(), product);
+        // The old name of a renamed product
+        names.values().removeIf(other -> other.getId() == product.getId());
+        if (product.getName() != null) {
+            names.put(product.getName(), product);
+        }
+        return new ProductCatalog(Map.copyOf(ids), Map.copyOf(names));
+    }
+}
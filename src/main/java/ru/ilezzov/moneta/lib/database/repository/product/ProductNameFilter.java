@@ -0,0 +1,193 @@
+package ru.ilezzov.moneta.lib.database.repository.product;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers in memory whether a product name is certainly unknown.
+ * A Bloom filter over all product names rejects most unknown names, the few it lets through are remembered
+ * for a short time once the database did not find them. The filter has no false negatives for the names it was
+ * built from or was told about with {@link #add}; names of products inserted by other processes are missing
+ * until the filter is {@link #rebuild rebuilt}.
+ */
+final class ProductNameFilter {
+    private static final int MIN_CAPACITY = 1024;
+    private static final int HASHES = 7; // ~1% false positives at full capacity
+
+    private final Cache<String, Boolean> misses;
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Bits bits;
+    private List<String> addedWhileLoading;
+
+    ProductNameFilter(final long missTtlMillis) {
+        this.misses = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(missTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @return whether no product has the name; {@code false} while the filter is not built yet
+     */
+    boolean isMissing(final String name) {
+        if (misses.getIfPresent(name) != null) {
+            return true;
+        }
+
+        final Bits current = bits;
+        return current != null && !current.mightContain(name);
+    }
+
+    /**
+     * @return the counter to pass to {@link #missed} for a lookup started now
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Remembers that the database did not find the name, unless a product name was written since the lookup started.
+     */
+    void missed(final String name, final long lookupGeneration) {
+        misses.put(name, Boolean.TRUE);
+
+        if (generation.get() != lookupGeneration) {
+            misses.invalidate(name);
+        }
+    }
+
+    /**
+     * Adds a name that is about to be written, before the write, so a committed name is never rejected.
+     */
+    synchronized void add(final String name) {
+        final Bits current = bits;
+
+        if (current != null) {
+            current.add(name);
+        }
+        if (addedWhileLoading != null) {
+            addedWhileLoading.add(name);
+        }
+    }
+
+    /**
+     * Forgets the remembered miss of a name once it is written.
+     */
+    void written(final String name) {
+        generation.incrementAndGet();
+        misses.invalidate(name);
+    }
+
+    /**
+     * @return whether more names were added than the filter was sized for, so it lets through more unknown names
+     */
+    boolean isOverCapacity() {
+        final Bits current = bits;
+        return current != null && current.count.get() > current.capacity;
+    }
+
+    /**
+     * Starts a rebuild, call it before the names are read. Names added from now on are kept for the new filter.
+     *
+     * @return {@code false} if a rebuild is running already
+     */
+    synchronized boolean startRebuild() {
+        if (addedWhileLoading != null) {
+            return false;
+        }
+        addedWhileLoading = new ArrayList<>();
+        return true;
+    }
+
+    /**
+     * Ends a rebuild whose names could not be read, the current filter stays in use.
+     */
+    synchronized void cancelRebuild() {
+        addedWhileLoading = null;
+    }
+
+    /**
+     * Replaces the filter with one sized for and built from the names read after {@link #startRebuild}.
+     */
+    synchronized void rebuild(final Collection<String> names) {
+        final List<String> added = addedWhileLoading == null ? List.of() : addedWhileLoading;
+        final Bits next = new Bits(Math.max(MIN_CAPACITY, (names.size() + added.size()) * 2));
+
+        for (final String name : names) {
+            next.add(name);
+        }
+        for (final String name : added) {
+            next.add(name);
+        }
+        bits = next;
+        addedWhileLoading = null;
+    }
+
+    private static final class Bits {
+        private final int capacity;
+        private final int size;
+        private final AtomicLongArray words;
+        private final AtomicLong count = new AtomicLong();
+
+        private Bits(final int capacity) {
+            this.capacity = capacity;
+            this.size = (int) Math.min(Integer.MAX_VALUE - 64L, (long) Math.ceil(capacity * 9.6));
+            this.words = new AtomicLongArray((size + 63) / 64);
+        }
+
+        private void add(final String name) {
+            final long hash = hash(name);
+
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = index(hash, i);
+                final int word = bit >>> 6;
+                final long mask = 1L << bit;
+
+                long value;
+                do {
+                    value = words.get(word);
+                } while ((value & mask) == 0 && !words.compareAndSet(word, value, value | mask));
+            }
+            count.incrementAndGet();
+        }
+
+        private boolean mightContain(final String name) {
+            final long hash = hash(name);
+
+            for (int i = 0; i < HASHES; i++) {
+                final int bit = index(hash, i);
+
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int index(final long hash, final int i) {
+            final int combined = (int) hash + i * (int) (hash >>> 32);
+            return (combined & Integer.MAX_VALUE) % size;
+        }
+
+        private static long hash(final String name) {
+            long hash = 0xcbf29ce484222325L;
+
+            for (int i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+            }
+            // Final mix, so both halves depend on every character
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
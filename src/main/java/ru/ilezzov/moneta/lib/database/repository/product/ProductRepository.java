@@ -1,117 +1,516 @@
 package ru.ilezzov.moneta.lib.database.repository.product;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import ru.ilezzov.moneta.lib.database.BatchLoader;
+import ru.ilezzov.moneta.lib.database.BatchLoaderSettings;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SQLDialect;
 import ru.ilezzov.moneta.lib.database.repository.DataRepository;
+import ru.ilezzov.moneta.lib.database.repository.EntityCacheLoader;
+import ru.ilezzov.moneta.lib.database.repository.WriteBehindBuffer;
+import ru.ilezzov.moneta.lib.enums.Lane;
 import ru.ilezzov.moneta.lib.enums.ProductCategory;
 import ru.ilezzov.moneta.lib.enums.ProductStatus;
 import ru.ilezzov.moneta.lib.enums.ProductUnit;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class ProductRepository implements DataRepository<Long, Product> {
+    private static final long DEFAULT_INVENTORY_FLUSH_INTERVAL_MILLIS = 200;
+
     private final SQLDatabase database;
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final Executor analyticsExecutor;
+    private final AsyncLoadingCache<Long, Product> asyncCache;
     private final Cache<Long, Product> cache;
+    private final WriteBehindBuffer<Product> writeBehind = new WriteBehindBuffer<>();
+    private volatile BatchLoader<Long, Product> batchLoader;
+    private final InventoryLedger inventory;
 
-    private final Cache<String, Long> productsByName;
+    private final AsyncLoadingCache<String, Long> productsByName;
+    private volatile ProductNameFilter nameFilter;
+    private volatile ProductCatalog catalog;
 
     public ProductRepository(final SQLDatabase database) {
+        this(database, DEFAULT_INVENTORY_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param inventoryFlushIntervalMillis how often the stock changes recorded in the {@link InventoryLedger} are written to the database
+     */
+    public ProductRepository(final SQLDatabase database, final long inventoryFlushIntervalMillis) {
+        this(database, ExecutorUtil.defaultExecutor(), inventoryFlushIntervalMillis);
+    }
+
+    /**
+     * @param executor                     runs the blocking database calls of the repository
+     * @param inventoryFlushIntervalMillis how often the stock changes recorded in the {@link InventoryLedger} are written to the database
+     */
+    public ProductRepository(final SQLDatabase database, final Executor executor, final long inventoryFlushIntervalMillis) {
+        this(database, executor, executor, executor, inventoryFlushIntervalMillis);
+    }
+
+    /**
+     * @param lanes                        runs point reads, writes and full-table reads on their own {@link LaneScheduler} lanes
+     * @param inventoryFlushIntervalMillis how often the stock changes recorded in the {@link InventoryLedger} are written to the database
+     */
+    public ProductRepository(final SQLDatabase database, final LaneScheduler lanes, final long inventoryFlushIntervalMillis) {
+        this(database, lanes.executor(Lane.READ), lanes.executor(Lane.WRITE), lanes.executor(Lane.ANALYTICS), inventoryFlushIntervalMillis);
+    }
+
+    private ProductRepository(final SQLDatabase database, final Executor readExecutor, final Executor writeExecutor, final Executor analyticsExecutor, final long inventoryFlushIntervalMillis) {
         this.database = database;
-        this.cache = Caffeine.newBuilder()
+        this.readExecutor = readExecutor;
+        this.writeExecutor = writeExecutor;
+        this.analyticsExecutor = analyticsExecutor;
+        this.asyncCache = Caffeine.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(5, TimeUnit.MINUTES)
+                .refreshAfterWrite(4, TimeUnit.MINUTES)
                 .removalListener((Long value, Product product, RemovalCause removalCause) -> {
-                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE) {
-                        save(product);
+                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE || removalCause == RemovalCause.REPLACED) {
+                        writeBehind.evicted(product);
                     }
                 })
-                .build();
-    this.productsByName = Caffeine.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(5, TimeUnit.MINUTES)
-            .build();
+                .buildAsync(new EntityCacheLoader<>(this::loadAsync, this::loadManyAsync));
+        this.cache = asyncCache.synchronous();
+        this.productsByName = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(5, TimeUnit.MINUTES)
+                .refreshAfterWrite(4, TimeUnit.MINUTES)
+                .buildAsync((String name, Executor ignored) -> CompletableFuture.supplyAsync(() -> loadIdByName(name), readExecutor));
+        this.inventory = new InventoryLedger(database, this, inventoryFlushIntervalMillis);
+    }
+
+    /**
+     * @return the ledger that owns the product stock; product saves never write the stock column
+     */
+    public InventoryLedger getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Keeps all products in memory in a {@link ProductCatalog} instead of the expiring cache. Lookups by id and name
+     * of a known product complete at once; inserts and saves publish a new snapshot of the catalog.
+     * Products inserted by other processes are loaded on their first lookup, their changes to known products are not seen.
+     * Lookups use the cache until the returned future completes.
+     */
+    public CompletableFuture<Void> enableCatalog() {
+        return CompletableFuture.runAsync(() -> {
+            final String sql = "SELECT * FROM products";
+
+            try {
+                final List<Product> products = inventory.read(() -> database.query(sql, this::getProductFromResultSet));
+
+                synchronized (this) {
+                    final List<Product> resident = new ArrayList<>(products.size());
+
+                    for (final Product product : products) {
+                        // The cached instance may hold changes not written yet
+                        final Product cached = cache.asMap().get(product.getId());
+                        resident.add(cached == null ? product : cached);
+                    }
+                    this.catalog = new ProductCatalog(resident);
+                }
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, analyticsExecutor);
+    }
+
+    /**
+     * Makes the name lookups reject unknown names in memory with a {@link ProductNameFilter} built from all product names
+     * and remember the names the database did not find. Lookups are not filtered until the returned future completes.
+     *
+     * @param missTtlMillis how long a name the database did not find is rejected without a query
+     */
+    public CompletableFuture<Void> enableNameFilter(final long missTtlMillis) {
+        this.nameFilter = new ProductNameFilter(missTtlMillis);
+        return rebuildNameFilter();
+    }
+
+    /**
+     * Rebuilds the name filter from the database, which picks up the products inserted or renamed by other processes.
+     * Does nothing if the filter is off or a rebuild is running.
+     */
+    public CompletableFuture<Void> rebuildNameFilter() {
+        final ProductNameFilter filter = nameFilter;
+
+        if (filter == null || !filter.startRebuild()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    filter.rebuild(database.query("SELECT name FROM products", resultSet -> resultSet.getString("name")));
+                } catch (final SQLException e) {
+                    filter.cancelRebuild();
+                    throw new IllegalStateException(e);
+                }
+            }, analyticsExecutor);
+        } catch (final RuntimeException e) {
+            filter.cancelRebuild();
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether no product has the name, answered without a database call; always {@code false} if the name filter is off
+     */
+    public boolean isKnownMissing(final String name) {
+        final ProductNameFilter filter = nameFilter;
+        return filter != null && name != null && filter.isMissing(name);
     }
 
 
     @Override
     public CompletableFuture<Product> get(final Long key) {
-        final Product product = cache.getIfPresent(key);
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final ProductCatalog current = catalog;
+
+        if (current == null) {
+            return asyncCache.get(key);
+        }
+
+        final Product product = current.get(key);
 
         if (product != null) {
             return CompletableFuture.completedFuture(product);
         }
 
-        return CompletableFuture.supplyAsync(() -> loadFromDatabase(key));
+        return loadAsync(key)
+                .thenApply(loaded -> loaded == null ? null : cacheIfAbsent(loaded));
     }
 
-    public CompletableFuture<Product> getByName(final String name) {
-        final Long key = productsByName.getIfPresent(name);
+    @Override
+    public CompletableFuture<Map<Long, Product>> getMany(final Collection<Long> keys) {
+        final List<Long> ids = keys.stream().filter(Objects::nonNull).distinct().toList();
+        final ProductCatalog current = catalog;
 
-        if (key == null) {
-            return CompletableFuture.supplyAsync(() -> loadFromDatabaseByName(name));
+        if (current == null) {
+            return asyncCache.getAll(ids);
+        }
+
+        final Map<Long, Product> found = new HashMap<>();
+        final List<Long> missing = new ArrayList<>();
+
+        for (final Long id : ids) {
+            final Product product = current.get(id);
+
+            if (product != null) {
+                found.put(id, product);
+            } else {
+                missing.add(id);
+            }
         }
 
-        final Product product = cache.getIfPresent(key);
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(found);
+        }
+
+        return loadManyAsync(missing).thenApply(loaded -> {
+            for (final Product product : loaded.values()) {
+                found.put(product.getId(), cacheIfAbsent(product));
+            }
+            return found;
+        });
+    }
+
+    public CompletableFuture<Product> getByName(final String name) {
+        if (name == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final ProductCatalog current = catalog;
+        final Product product = current == null ? null : current.get(name);
 
         if (product != null) {
             return CompletableFuture.completedFuture(product);
         }
+        if (isKnownMissing(name)) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-        return CompletableFuture.supplyAsync(() -> loadFromDatabase(key));
+        return productsByName.get(name).thenCompose(this::get);
     }
 
     private Product loadFromDatabase(final Long id) {
-        if (id == null) {
+        final String sql = "SELECT * FROM products WHERE id = ?";
+
+        try {
+            return inventory.read(() -> database.queryOne(sql, this::getProductFromResultSet, id));
+        } catch (final SQLException e) {
             return null;
         }
+    }
 
-        final String sql = "SELECT * FROM products WHERE id = ?";
+    /**
+     * Coalesces the loads of uncached products that arrive within a short window into one {@code WHERE id = ANY(?)} query.
+     */
+    public void enableBatchLoading(final BatchLoaderSettings settings) {
+        this.batchLoader = new BatchLoader<>(settings, this::loadAllFromDatabase, readExecutor);
+    }
 
-        try (final ResultSet resultSet = database.executePreparedQuery(sql, id)) {
-            if (!resultSet.next()) {
-                return null;
+    private CompletableFuture<Product> loadAsync(final Long id) {
+        final BatchLoader<Long, Product> loader = this.batchLoader;
+
+        if (loader != null) {
+            return loader.load(id);
+        }
+        return CompletableFuture.supplyAsync(() -> loadFromDatabase(id), readExecutor);
+    }
+
+    private Map<Long, Product> loadAllFromDatabase(final List<Long> ids) throws SQLException {
+        final String sql = "SELECT * FROM products WHERE id = ANY(?)";
+        final Map<Long, Product> products = new HashMap<>();
+
+        for (final Product product : inventory.read(() -> database.query(sql, this::getProductFromResultSet, (Object) ids.toArray(new Long[0])))) {
+            products.put(product.getId(), product);
+        }
+        return products;
+    }
+
+    private CompletableFuture<Map<Long, Product>> loadManyAsync(final List<Long> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadAllFromDatabase(ids);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
             }
+        }, readExecutor);
+    }
 
-            final String name = resultSet.getString("name");
-            final Product product = getProductFromResultSet(id, name, resultSet);
+    /**
+     * Reads the product with the name and caches it unless it is cached already, so a modified cached instance is kept.
+     */
+    private Long loadIdByName(final String name) {
+        final String sql = "SELECT * FROM products WHERE name = ?";
+        final ProductNameFilter filter = nameFilter;
+        final long generation = filter == null ? 0 : filter.generation();
+
+        try {
+            final Product product = inventory.read(() -> database.queryOne(sql, this::getProductFromResultSet, name));
 
-            this.cache.put(id, product);
-            return product;
+            if (product == null) {
+                if (filter != null) {
+                    filter.missed(name, generation);
+                }
+                return null;
+            }
+            cacheIfAbsent(product);
+            return product.getId();
         } catch (final SQLException e) {
             return null;
         }
     }
 
-    private Product loadFromDatabaseByName(final String name) {
-        if (name == null) {
-            return null;
+    /**
+     * Finds products by name, serving cached ones from memory and loading the rest with a single query.
+     *
+     * @param names the product names
+     * @return the found products by name, unknown names are absent from the map
+     */
+    public CompletableFuture<Map<String, Product>> getByNames(final Collection<String> names) {
+        final Map<String, Product> found = new HashMap<>();
+        final List<String> missing = new ArrayList<>();
+
+        for (final String name : names) {
+            if (isKnownMissing(name)) {
+                continue;
+            }
+
+            final Product product = cachedByName(name);
+
+            if (product != null) {
+                found.put(name, product);
+            } else {
+                missing.add(name);
+            }
         }
 
-        final String sql = "SELECT * FROM products WHERE name = ?";
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(found);
+        }
 
-        try (final ResultSet resultSet = database.executePreparedQuery(sql, name)) {
-            if (!resultSet.next()) {
-                return null;
+        return CompletableFuture.supplyAsync(() -> {
+            final String sql = "SELECT * FROM products WHERE name = ANY(?)";
+            final ProductNameFilter filter = nameFilter;
+            final long generation = filter == null ? 0 : filter.generation();
+
+            try {
+                for (final Product product : inventory.read(() -> database.query(sql, this::getProductFromResultSet, (Object) missing.toArray(new String[0])))) {
+                    this.productsByName.put(product.getName(), CompletableFuture.completedFuture(product.getId()));
+                    found.put(product.getName(), cacheIfAbsent(product));
+                }
+
+                if (filter != null) {
+                    for (final String name : missing) {
+                        if (!found.containsKey(name)) {
+                            filter.missed(name, generation);
+                        }
+                    }
+                }
+                return found;
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
             }
+        }, readExecutor);
+    }
 
-            final long id = resultSet.getLong("id");
-            final Product product =  getProductFromResultSet(id, name, resultSet);
+    /**
+     * @return the cached product with the name, without loading it
+     */
+    private Product cachedByName(final String name) {
+        final ProductCatalog current = catalog;
 
-            this.productsByName.put(name, id);
-            this.cache.put(id, product);
-            return product;
-        } catch (final SQLException e) {
-            return null;
+        if (current != null) {
+            return current.get(name);
+        }
+
+        final Long key = productsByName.synchronous().asMap().get(name);
+        return key == null ? null : cache.asMap().get(key);
+    }
+
+    /**
+     * @return the cached product with the id, without loading it
+     */
+    private Product cached(final long id) {
+        final ProductCatalog current = catalog;
+        return current == null ? cache.asMap().get(id) : current.get(id);
+    }
+
+    /**
+     * Caches a product read from the database unless it is cached already.
+     *
+     * @return the cached instance, which may hold changes not written yet
+     */
+    private Product cacheIfAbsent(final Product product) {
+        if (catalog != null) {
+            return addToCatalog(product);
+        }
+
+        final Product cached = cache.asMap().putIfAbsent(product.getId(), product);
+        return cached == null ? product : cached;
+    }
+
+    private synchronized Product addToCatalog(final Product product) {
+        final Product resident = catalog.get(product.getId());
+
+        if (resident != null) {
+            return resident;
+        }
+
+        // Cached before the catalog was enabled
+        final Product cached = cache.asMap().get(product.getId());
+        final Product added = cached == null ? product : cached;
+
+        this.catalog = catalog.with(added);
+        return added;
+    }
+
+    /**
+     * Publishes the current name of a written product, unless the catalog holds another instance of it.
+     */
+    private synchronized void catalogWritten(final Product value) {
+        final ProductCatalog current = catalog;
+
+        if (current == null) {
+            return;
+        }
+
+        final Product resident = current.get(value.getId());
+        if (resident == null || resident == value) {
+            this.catalog = current.with(value);
+        }
+    }
+
+    /**
+     * @return the products the write-behind buffer has to check for changes
+     */
+    private Collection<Product> residentProducts() {
+        final ProductCatalog current = catalog;
+
+        if (current == null) {
+            return cache.asMap().values();
+        }
+
+        final List<Product> products = new ArrayList<>(current.products());
+        products.addAll(cache.asMap().values());
+        return products;
+    }
+
+    /**
+     * Adds the stock deltas to the products on the given connection with a single set-based statement.
+     * Cached products are not touched, call {@link #applyCachedStockDeltas(Map)} once the transaction is committed.
+     *
+     * @param deltas stock change by product id, negative values reduce the stock
+     */
+    public void applyStockDeltas(final Connection connection, final Map<Long, Integer> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        if (database.getDialect() == SQLDialect.POSTGRESQL) {
+            final String sql = """
+                    UPDATE products AS p
+                    SET stock = p.stock + d.delta
+                    FROM unnest(?::bigint[], ?::integer[]) AS d(id, delta)
+                    WHERE p.id = d.id
+                    """;
+
+            try (final PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setObject(1, deltas.keySet().toArray(new Long[0]));
+                ps.setObject(2, deltas.values().toArray(new Integer[0]));
+                ps.executeUpdate();
+            }
+            return;
+        }
+
+        try (final PreparedStatement ps = connection.prepareStatement("UPDATE products SET stock = stock + ? WHERE id = ?")) {
+            for (final Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+                ps.setInt(1, delta.getValue());
+                ps.setLong(2, delta.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Mirrors committed stock deltas on the cached products.
+     */
+    public void applyCachedStockDeltas(final Map<Long, Integer> deltas) {
+        for (final Map.Entry<Long, Integer> delta : deltas.entrySet()) {
+            final Product product = cached(delta.getKey());
+
+            if (product != null) {
+                product.increaseStock(delta.getValue());
+            }
         }
     }
 
@@ -120,26 +519,24 @@ public class ProductRepository implements DataRepository<Long, Product> {
         return CompletableFuture.supplyAsync(() -> {
             final String sql = "SELECT * FROM products";
 
-            try (final ResultSet resultSet = database.executeQuery(sql)) {
-                final List<Product> products = new ArrayList<>();
-
-                while (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final String productName = resultSet.getString("name");
-                    final Product product = getProductFromResultSet(id, productName, resultSet);
-
-                    if (addToCache) {
-                        this.cache.put(id, product);
+            try {
+                final List<Product> products = inventory.read(() -> database.query(sql, this::getProductFromResultSet));
+
+                if (addToCache) {
+                    for (final Product product : products) {
+                        if (catalog != null) {
+                            addToCatalog(product);
+                        } else {
+                            this.cache.put(product.getId(), product);
+                        }
                     }
-
-                    products.add(product);
                 }
 
                 return products;
             } catch (final SQLException e) {
                 return null;
             }
-        });
+        }, analyticsExecutor);
     }
 
     @Override
@@ -147,13 +544,36 @@ public class ProductRepository implements DataRepository<Long, Product> {
         return getAll(addToCache);
     }
 
-    private Product getProductFromResultSet(final Long id, final String productName, final ResultSet resultSet) throws SQLException {
+    /**
+     * {@inheritDoc}
+     * The stock of the streamed products is the stock stored in the database: changes the {@link InventoryLedger}
+     * has not flushed yet are not included, because a cursor cannot be re-read when a flush commits under it.
+     */
+    @Override
+    public Stream<Product> stream(final LocalDateTime date, final int fetchSize) {
+        final String sql = "SELECT * FROM products";
+
+        try {
+            return database.stream(sql, fetchSize, resultSet -> getProductFromResultSet(resultSet, 0));
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Product getProductFromResultSet(final ResultSet resultSet) throws SQLException {
+        // Ещё не записанные изменения остатка
+        return getProductFromResultSet(resultSet, inventory.pending(resultSet.getLong("id")));
+    }
+
+    private Product getProductFromResultSet(final ResultSet resultSet, final int pendingStock) throws SQLException {
+        final long id = resultSet.getLong("id");
+        final String productName = resultSet.getString("name");
         final ProductCategory category = ProductCategory.parseCategory(resultSet.getString("category"));
-        final double cost_price = resultSet.getLong("cost_price");
+        final double cost_price = resultSet.getDouble("cost_price");
         final double retail_price = resultSet.getDouble("retail_price");
         final ProductUnit unit = ProductUnit.parseUnit(resultSet.getString("unit"));
         final String supplier = resultSet.getString("supplier");
-        final int stock = resultSet.getInt("stock");
+        final int stock = resultSet.getInt("stock") + pendingStock;
         final int minimum = resultSet.getInt("minimum");
         final ProductStatus productStatus = ProductStatus.parseStatus(resultSet.getString("status"));
 
@@ -178,7 +598,10 @@ public class ProductRepository implements DataRepository<Long, Product> {
                 return;
             }
 
-            final String sql = "INSERT INTO products (name, category, cost_price, retail_price, unit, supplier, stock, minimum, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
+            final String sql = database.getDialect().returning(
+                    "INSERT INTO products (name, category, cost_price, retail_price, unit, supplier, stock, minimum, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                    "id"
+            );
 
             final Object[] params = {
                     value.getName(),
@@ -192,19 +615,25 @@ public class ProductRepository implements DataRepository<Long, Product> {
                     value.getStatus().getStatus()
             };
 
+            nameWriting(value);
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
+                final Long id = database.queryOne(sql, resultSet -> resultSet.getLong("id"), params);
 
-                if (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
+                if (id != null) {
                     value.setId(id);
 
-                    cache.put(id, value);
+                    if (catalog != null) {
+                        addToCatalog(value);
+                    } else {
+                        cache.put(id, value);
+                    }
                 }
             } catch (final SQLException e) {
                 throw new IllegalStateException(e);
+            } finally {
+                nameWritten(value);
             }
-        });
+        }, writeExecutor);
     }
 
     @Override
@@ -222,12 +651,12 @@ public class ProductRepository implements DataRepository<Long, Product> {
                         retail_price = ?,
                         unit = ?,
                         supplier = ?,
-                        stock = ?,
                         minimum = ?,
                         status = ?
                     WHERE id = ?;
                     """;
 
+            final long version = value.getVersion();
             final Object[] params = {
                     value.getName(),
                     value.getCategory().getCategory(),
@@ -235,18 +664,22 @@ public class ProductRepository implements DataRepository<Long, Product> {
                     value.getRetailPrice(),
                     value.getUnit().getUnit(),
                     value.getSupplier(),
-                    value.getStock(),
                     value.getMinimum(),
                     value.getStatus().getStatus(),
                     value.getId()
             };
 
+            nameWriting(value);
             try {
                 database.executePreparedUpdate(sql, params);
+                value.markSaved(version);
             } catch (final SQLException e) {
 
+            } finally {
+                nameWritten(value);
+                catalogWritten(value);
             }
-        });
+        }, writeExecutor);
     }
 
     @Override
@@ -260,27 +693,54 @@ public class ProductRepository implements DataRepository<Long, Product> {
                         retail_price = ?,
                         unit = ?,
                         supplier = ?,
-                        stock = ?,
                         minimum = ?,
                         status = ?
                     WHERE id = ?;
                     """;
 
-            final Map<Long, Product> map = this.cache.asMap();
-            final List<Object[]> batchParams = getObjects(map);
-
             try {
-                database.executePreparedBatchUpdate(sql, batchParams);
+                writeBehind.flush(residentProducts(), values -> {
+                    values.forEach(this::nameWriting);
+                    try {
+                        database.executePreparedBatchUpdate(sql, getObjects(values));
+                    } finally {
+                        values.forEach(this::nameWritten);
+                        values.forEach(this::catalogWritten);
+                    }
+                });
             } catch (final SQLException e) {
                 e.printStackTrace();
             }
-        });
+        }, writeExecutor);
     }
 
-    private static List<Object[]> getObjects(final Map<Long, Product> map) {
-        final List<Object[]> batchParams = new ArrayList<>(map.size());
+    /**
+     * Lets the name filter know the name of a product before it is written, so it never rejects a committed name.
+     */
+    private void nameWriting(final Product value) {
+        final ProductNameFilter filter = nameFilter;
 
-        for (final Product value: map.values()) {
+        if (filter != null && value.getName() != null) {
+            filter.add(value.getName());
+        }
+    }
+
+    private void nameWritten(final Product value) {
+        final ProductNameFilter filter = nameFilter;
+
+        if (filter != null && value.getName() != null) {
+            filter.written(value.getName());
+
+            if (filter.isOverCapacity()) {
+                rebuildNameFilter();
+            }
+        }
+    }
+
+    private static List<Object[]> getObjects(final List<Product> values) {
+        final List<Object[]> batchParams = new ArrayList<>(values.size());
+
+        for (final Product value: values) {
             final Object[] params = {
                     value.getName(),
                     value.getCategory().getCategory(),
@@ -288,7 +748,6 @@ public class ProductRepository implements DataRepository<Long, Product> {
                     value.getRetailPrice(),
                     value.getUnit().getUnit(),
                     value.getSupplier(),
-                    value.getStock(),
                     value.getMinimum(),
                     value.getStatus().getStatus(),
                     value.getId()
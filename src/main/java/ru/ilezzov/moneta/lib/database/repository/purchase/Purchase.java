@@ -1,11 +1,12 @@
 package ru.ilezzov.moneta.lib.database.repository.purchase;
 
+import ru.ilezzov.moneta.lib.database.repository.TrackedEntity;
 import ru.ilezzov.moneta.lib.utils.DateUtil;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
 
-public class Purchase {
+public class Purchase extends TrackedEntity {
     private long id;
     private LocalDateTime date;
     private long productId;
@@ -45,34 +46,36 @@ public class Purchase {
     }
 
     public LocalDateTime getDate() { return date; }
-    public void setDate(LocalDateTime date) { this.date = date; }
+    public void setDate(LocalDateTime date) { this.date = date; markDirty(); }
 
     public long getProductId() { return productId; }
-    public void setProductId(long productId) { this.productId = productId; }
+    public void setProductId(long productId) { this.productId = productId; markDirty(); }
 
     public String getProductName() { return productName; }
-    public void setProductName(String productName) { this.productName = productName; }
+    public void setProductName(String productName) { this.productName = productName; markDirty(); }
 
     public double getCostPrice() { return costPrice; }
     public void setCostPrice(double costPrice) {
         this.costPrice = costPrice;
         recalculateTotalPrice();
+        markDirty();
     }
 
     public int getQuantity() { return quantity; }
     public void setQuantity(int quantity) {
         this.quantity = quantity;
         recalculateTotalPrice();
+        markDirty();
     }
 
     public double getTotalPrice() { return totalPrice; }
     public void setTotalPrice(double totalPrice) { this.totalPrice = totalPrice; }
 
     public String getSupplier() { return supplier; }
-    public void setSupplier(String supplier) { this.supplier = supplier; }
+    public void setSupplier(String supplier) { this.supplier = supplier; markDirty(); }
 
     public String getComment() { return comment; }
-    public void setComment(String comment) { this.comment = comment; }
+    public void setComment(String comment) { this.comment = comment; markDirty(); }
 
     private void recalculateTotalPrice() {
         this.totalPrice = this.costPrice * this.quantity;
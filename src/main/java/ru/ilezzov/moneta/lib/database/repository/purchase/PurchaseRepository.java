@@ -1,68 +1,154 @@
 package ru.ilezzov.moneta.lib.database.repository.purchase;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
+import ru.ilezzov.moneta.lib.database.BatchLoader;
+import ru.ilezzov.moneta.lib.database.BatchLoaderSettings;
+import ru.ilezzov.moneta.lib.database.BulkInsert;
+import ru.ilezzov.moneta.lib.database.GroupCommitQueue;
+import ru.ilezzov.moneta.lib.database.GroupCommitSettings;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SQLDialect;
+import ru.ilezzov.moneta.lib.database.StatsQuery;
 import ru.ilezzov.moneta.lib.database.repository.DataRepository;
-
+import ru.ilezzov.moneta.lib.database.repository.EntityCacheLoader;
+import ru.ilezzov.moneta.lib.database.repository.WriteBehindBuffer;
+import ru.ilezzov.moneta.lib.database.repository.expense.Expense;
+import ru.ilezzov.moneta.lib.enums.Lane;
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class PurchaseRepository implements DataRepository<Long, Purchase> {
+    private static final String GENERATED_COLUMNS = "id, purchase_date, total_price";
+    private static final List<String> BULK_COLUMNS = List.of("product_id", "product_name", "cost_price", "quantity", "supplier", "comment");
+    private static final PurchaseStats EMPTY_STATS = new PurchaseStats(0, 0, 0);
+
     private final SQLDatabase database;
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final Executor analyticsExecutor;
+    private final AsyncLoadingCache<Long, Purchase> asyncCache;
     private final Cache<Long, Purchase> cache;
+    private final WriteBehindBuffer<Purchase> writeBehind = new WriteBehindBuffer<>();
+    private volatile BatchLoader<Long, Purchase> batchLoader;
+    private volatile GroupCommitQueue<Purchase> groupCommit;
 
     public PurchaseRepository(final SQLDatabase database) {
+        this(database, ExecutorUtil.defaultExecutor());
+    }
+
+    /**
+     * @param executor runs the blocking database calls of the repository
+     */
+    public PurchaseRepository(final SQLDatabase database, final Executor executor) {
+        this(database, executor, executor, executor);
+    }
+
+    /**
+     * @param lanes runs point reads, writes and full-table reads and stats on their own {@link LaneScheduler} lanes
+     */
+    public PurchaseRepository(final SQLDatabase database, final LaneScheduler lanes) {
+        this(database, lanes.executor(Lane.READ), lanes.executor(Lane.WRITE), lanes.executor(Lane.ANALYTICS));
+    }
+
+    private PurchaseRepository(final SQLDatabase database, final Executor readExecutor, final Executor writeExecutor, final Executor analyticsExecutor) {
         this.database = database;
-        this.cache = Caffeine.newBuilder()
+        this.readExecutor = readExecutor;
+        this.writeExecutor = writeExecutor;
+        this.analyticsExecutor = analyticsExecutor;
+        this.asyncCache = Caffeine.newBuilder()
                 .maximumSize(1000)
                 .expireAfterWrite(5, TimeUnit.MINUTES)
+                .refreshAfterWrite(4, TimeUnit.MINUTES)
                 .removalListener((Long value, Purchase purchase, RemovalCause removalCause) -> {
-                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE) {
-                        save(purchase);
+                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE || removalCause == RemovalCause.REPLACED) {
+                        writeBehind.evicted(purchase);
                     }
                 })
-                .build();
+                .buildAsync(new EntityCacheLoader<>(this::loadAsync, this::loadManyAsync));
+        this.cache = asyncCache.synchronous();
     }
 
     @Override
     public CompletableFuture<Purchase> get(final Long key) {
-        final Purchase purchase = cache.getIfPresent(key);
-
-        if (purchase != null) {
-            return CompletableFuture.completedFuture(purchase);
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        return CompletableFuture.supplyAsync(() -> loadFromDatabase(key));
+        return asyncCache.get(key);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, Purchase>> getMany(final Collection<Long> keys) {
+        return asyncCache.getAll(keys.stream().filter(Objects::nonNull).distinct().toList());
     }
 
     private Purchase loadFromDatabase(final Long id) {
-        if (id == null) {
+        final String sql = "SELECT * FROM purchases WHERE id = ?";
+
+        try {
+            return database.queryOne(sql, this::getPurchaseFromResultSet, id);
+        } catch (final SQLException e) {
             return null;
         }
+    }
 
-        final String sql = "SELECT * FROM purchases WHERE id = ?";
+    /**
+     * Coalesces the loads of uncached purchases that arrive within a short window into one {@code WHERE id = ANY(?)} query.
+     */
+    public void enableBatchLoading(final BatchLoaderSettings settings) {
+        this.batchLoader = new BatchLoader<>(settings, this::loadAllFromDatabase, readExecutor);
+    }
 
-        try (final ResultSet resultSet = database.executePreparedQuery(sql, id)) {
-            if (!resultSet.next()) {
-                return null;
-            }
+    private CompletableFuture<Purchase> loadAsync(final Long id) {
+        final BatchLoader<Long, Purchase> loader = this.batchLoader;
 
-            final Purchase purchase = getPurchaseFromResultSet(id, resultSet);
+        if (loader != null) {
+            return loader.load(id);
+        }
+        return CompletableFuture.supplyAsync(() -> loadFromDatabase(id), readExecutor);
+    }
 
-            this.cache.put(id, purchase);
-            return purchase;
-        } catch (final SQLException e) {
-            return null;
+    private Map<Long, Purchase> loadAllFromDatabase(final List<Long> ids) throws SQLException {
+        final String sql = "SELECT * FROM purchases WHERE id = ANY(?)";
+        final Map<Long, Purchase> purchases = new HashMap<>();
+
+        for (final Purchase purchase : database.query(sql, this::getPurchaseFromResultSet, (Object) ids.toArray(new Long[0]))) {
+            purchases.put(purchase.getId(), purchase);
         }
+        return purchases;
+    }
+
+    private CompletableFuture<Map<Long, Purchase>> loadManyAsync(final List<Long> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadAllFromDatabase(ids);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, readExecutor);
     }
 
     @Override
@@ -76,35 +162,51 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
             final String sql = "SELECT * FROM purchases WHERE purchase_date > ?";
             final Object[] params = new Object[]{date};
 
-            try (final ResultSet resultSet = database.executePreparedQuery(sql, params)) {
-                final List<Purchase> purchases = new ArrayList<>();
-
-                while (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final Purchase purchase = getPurchaseFromResultSet(id, resultSet);
+            try {
+                final List<Purchase> purchases = database.query(sql, this::getPurchaseFromResultSet, params);
 
-                    if (addToCache) {
-                        this.cache.put(id, purchase);
+                if (addToCache) {
+                    for (final Purchase purchase : purchases) {
+                        this.cache.put(purchase.getId(), purchase);
                     }
-
-                    purchases.add(purchase);
                 }
 
                 return purchases;
             } catch (final SQLException e) {
                 return null;
             }
-        });
+        }, analyticsExecutor);
+    }
+
+    @Override
+    public Stream<Purchase> stream(final LocalDateTime date, final int fetchSize) {
+        final String sql = "SELECT * FROM purchases WHERE purchase_date > ?";
+
+        try {
+            return database.stream(sql, fetchSize, this::getPurchaseFromResultSet, date);
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public CompletableFuture<Void> insert(final Purchase value) {
+        if (value != null && value.getQuantity() <= 0) {
+            // Rejected before it can share a group commit with other purchases
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Quantity must be positive: " + value.getQuantity()));
+        }
+
+        final GroupCommitQueue<Purchase> queue = this.groupCommit;
+        if (queue != null && value != null) {
+            return queue.submit(value).thenAccept(inserted -> {});
+        }
+
         return CompletableFuture.runAsync(() -> {
-            final String sql = """
+            final String sql = database.getDialect().returning("""
             INSERT INTO purchases (
                 product_id, product_name, cost_price, quantity, supplier, comment
-            ) VALUES (?, ?, ?, ?, ?, ?) RETURNING id, purchase_date, total_price
-        """;
+            ) VALUES (?, ?, ?, ?, ?, ?)
+            """, GENERATED_COLUMNS);
 
             final Object[] params = {
                     value.getProductId(),
@@ -116,23 +218,197 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
             };
 
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
+                final Purchase inserted = database.queryOne(sql, resultSet -> setGeneratedColumns(value, resultSet), params);
+
+                if (inserted != null) {
+                    cache.put(inserted.getId(), inserted);
+                }
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, writeExecutor);
+    }
+
+    /**
+     * Routes {@link #insert} through a {@link GroupCommitQueue}: the purchases are inserted by a single writer
+     * in groups sharing one transaction, and the returned futures complete once the group is committed.
+     */
+    public void enableGroupCommit(final GroupCommitSettings settings) {
+        this.groupCommit = new GroupCommitQueue<>("purchases", database, settings, new GroupCommitQueue.GroupWriter<>() {
+            @Override
+            public void write(final Connection connection, final List<Purchase> values) throws SQLException {
+                final Iterator<Purchase> pending = values.iterator();
+                BulkInsert.insertReturning(connection, database.getDialect(), "purchases", BULK_COLUMNS, getRows(values), GENERATED_COLUMNS,
+                        resultSet -> setGeneratedColumns(pending.next(), resultSet));
+            }
+
+            @Override
+            public void committed(final List<Purchase> values) {
+                for (final Purchase value : values) {
+                    cache.put(value.getId(), value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Commits the queued purchases and switches {@link #insert} back to one statement per call.
+     */
+    public void disableGroupCommit() {
+        final GroupCommitQueue<Purchase> queue = this.groupCommit;
+
+        if (queue != null) {
+            this.groupCommit = null;
+            queue.close();
+        }
+    }
+
+    /**
+     * Inserts the purchases with multi-row INSERT statements of up to {@link BulkInsert#MAX_ROWS_PER_STATEMENT} rows,
+     * reading the generated columns back and caching the inserted purchases.
+     * Every statement runs in its own transaction; the inserts stop at the first failed one, so the purchases that were not inserted keep the id 0.
+     *
+     * @return the same list of purchases
+     */
+    public CompletableFuture<List<Purchase>> insertAll(final List<Purchase> values) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (int from = 0; from < values.size(); from += BulkInsert.MAX_ROWS_PER_STATEMENT) {
+                final List<Purchase> chunk = values.subList(from, Math.min(values.size(), from + BulkInsert.MAX_ROWS_PER_STATEMENT));
+                final Iterator<Purchase> pending = chunk.iterator();
+
+                try {
+                    database.inTransaction(connection -> {
+                        BulkInsert.insertReturning(connection, database.getDialect(), "purchases", BULK_COLUMNS, getRows(chunk), GENERATED_COLUMNS,
+                                resultSet -> setGeneratedColumns(pending.next(), resultSet));
+                        return null;
+                    });
+                } catch (final SQLException e) {
+                    e.printStackTrace();
+                    // The chunk was rolled back, ids read before the failure are not valid
+                    for (final Purchase value : chunk) {
+                        value.setId(0);
+                    }
+                    break;
+                }
 
-                if (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final LocalDateTime date = resultSet.getTimestamp("purchase_date").toLocalDateTime();
-                    final double totalPrice = resultSet.getDouble("total_price");
+                for (final Purchase value : chunk) {
+                    cache.put(value.getId(), value);
+                }
+            }
+            return values;
+        }, writeExecutor);
+    }
 
-                    value.setId(id);
-                    value.setDate(date);
-                    value.setTotalPrice(totalPrice);
+    /**
+     * Inserts a purchase of the product with the given name and adds the quantity to the product stock
+     * as one atomic write: a single statement on PostgreSQL, a short transaction elsewhere.
+     * The cost price and the supplier are read from the product row on the server. The inserted purchase is cached.
+     *
+     * @param expense the expense to record together with the purchase, its amount is filled in
+     *                from the product cost price; {@code null} for none
+     * @return the inserted purchase, or {@code null} if there is no product with the given name
+     */
+    public CompletableFuture<Purchase> insertForProduct(final String productName, final int quantity, final Expense expense, final String comment) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final Purchase purchase = database.getDialect() == SQLDialect.POSTGRESQL
+                        ? insertForProductWithCte(productName, quantity, expense, comment)
+                        : database.inTransaction(connection -> insertForProduct(connection, productName, quantity, expense, comment));
 
-                    cache.put(id, value);
+                if (purchase != null) {
+                    if (expense != null) {
+                        expense.setAmount(purchase.getCostPrice() * quantity);
+                    }
+                    cache.put(purchase.getId(), purchase);
                 }
+                return purchase;
             } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, writeExecutor);
+    }
+
+    private Purchase insertForProductWithCte(final String productName, final int quantity, final Expense expense, final String comment) throws SQLException {
+        final String sql = """
+            WITH product AS (
+                UPDATE products
+                SET stock = stock + ?
+                WHERE id = (SELECT id FROM products WHERE name = ? LIMIT 1)
+                RETURNING id, name, cost_price, supplier
+            ), purchase AS (
+                INSERT INTO purchases (product_id, product_name, cost_price, quantity, supplier, comment)
+                SELECT id, name, cost_price, ?, supplier, ?
+                FROM product
+                RETURNING *
+            ), expense AS (
+                INSERT INTO expenses (category, description, amount, comment)
+                SELECT ?::text, ?::text, cost_price * ?, ?::text
+                FROM product
+                WHERE ?::boolean
+            )
+            SELECT * FROM purchase
+            """;
+
+        final Object[] params = {
+                quantity,
+                productName,
+                quantity,
+                comment,
+                expense == null ? null : expense.getCategory().getCategory(),
+                expense == null ? null : expense.getDescription(),
+                quantity,
+                expense == null ? null : expense.getComment(),
+                expense != null
+        };
+
+        return database.queryOne(sql, this::getPurchaseFromResultSet, params);
+    }
+
+    private Purchase insertForProduct(final Connection connection, final String productName, final int quantity, final Expense expense, final String comment) throws SQLException {
+        final String sql = """
+            SELECT * FROM FINAL TABLE (
+                INSERT INTO purchases (product_id, product_name, cost_price, quantity, supplier, comment)
+                SELECT id, name, cost_price, ?, supplier, ?
+                FROM FINAL TABLE (
+                    UPDATE products
+                    SET stock = stock + ?
+                    WHERE id = (SELECT id FROM products WHERE name = ? LIMIT 1)
+                )
+            )
+            """;
+
+        final Purchase purchase;
+        try (final PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, quantity);
+            ps.setString(2, comment);
+            ps.setInt(3, quantity);
+            ps.setString(4, productName);
 
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                purchase = resultSet.next() ? getPurchaseFromResultSet(resultSet) : null;
             }
-        });
+        }
+
+        if (purchase != null && expense != null) {
+            try (final PreparedStatement ps = connection.prepareStatement("INSERT INTO expenses (category, description, amount, comment) VALUES (?, ?, ?, ?)")) {
+                ps.setString(1, expense.getCategory().getCategory());
+                ps.setString(2, expense.getDescription());
+                ps.setDouble(3, purchase.getCostPrice() * quantity);
+                ps.setString(4, expense.getComment());
+                ps.executeUpdate();
+            }
+        }
+        return purchase;
+    }
+
+    /**
+     * Inserts the purchases on the given connection using the fastest path of the dialect (COPY on PostgreSQL).
+     * Ids and generated columns are not read back and the purchases are not cached.
+     *
+     * @return the number of inserted rows
+     */
+    public long bulkInsert(final Connection connection, final List<Purchase> values) throws SQLException {
+        return BulkInsert.into(connection, database.getDialect(), "purchases", BULK_COLUMNS, getRows(values));
     }
 
     @Override
@@ -150,6 +426,7 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
             WHERE id = ?
             """;
 
+            final long version = value.getVersion();
             final Object[] params = {
                     value.getDate(),
                     value.getProductId(),
@@ -163,10 +440,11 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
 
             try {
                 database.executePreparedUpdate(sql, params);
+                value.markSaved(version);
             } catch (final SQLException e) {
 
             }
-        });
+        }, writeExecutor);
     }
 
     @Override
@@ -184,21 +462,18 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
             WHERE id = ?
             """;
 
-            final Map<Long, Purchase> map = cache.asMap();
-            final List<Object[]> bathParams = getObjects(map);
-
             try {
-                database.executePreparedBatchUpdate(sql, bathParams);
+                writeBehind.flush(cache.asMap().values(), values -> database.executePreparedBatchUpdate(sql, getObjects(values)));
             } catch (final SQLException e) {
-
+                e.printStackTrace();
             }
-        });
+        }, writeExecutor);
     }
 
-    private static List<Object[]> getObjects(final Map<Long, Purchase> map) {
-        final List<Object[]> batchParams = new ArrayList<>(map.size());
+    private static List<Object[]> getObjects(final List<Purchase> values) {
+        final List<Object[]> batchParams = new ArrayList<>(values.size());
 
-        for (final Purchase value: map.values()) {
+        for (final Purchase value: values) {
             final Object[] params = {
                     value.getDate(),
                     value.getProductId(),
@@ -214,7 +489,52 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
         return batchParams;
     }
 
-    private Purchase getPurchaseFromResultSet(final long id, final ResultSet resultSet) throws SQLException {
+    public CompletableFuture<PurchaseStats> getPurchaseStatsByDate(final LocalDate start, final LocalDate end) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return statsQuery().between(start, end).total(database, this::getPurchaseStatsFromResultSet);
+            } catch (SQLException e) {
+                return null;
+            }
+        }, analyticsExecutor);
+    }
+
+    /**
+     * Purchase stats of the days from {@code start} inclusive to {@code end} exclusive, grouped by bucket.
+     *
+     * @return one entry per bucket in date order, empty buckets included
+     */
+    public CompletableFuture<List<PurchaseStats>> getPurchaseStatsGroupBy(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return statsQuery().between(start, end).groupBy(bucket).buckets(database, this::getPurchaseStatsFromResultSet, EMPTY_STATS);
+            } catch (SQLException e) {
+                return null;
+            }
+        }, analyticsExecutor);
+    }
+
+    public CompletableFuture<List<PurchaseStats>> getPurchaseStatsGroupByMonth(final int year) {
+        return getPurchaseStatsGroupBy(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1), StatsBucket.MONTH);
+    }
+
+    private static StatsQuery statsQuery() {
+        return StatsQuery.from("purchases", "purchase_date")
+                .count("purchases_count")
+                .sum("quantity", "total_quantity")
+                .sum("total_price", "total_cost");
+    }
+
+    private PurchaseStats getPurchaseStatsFromResultSet(final ResultSet resultSet) throws SQLException {
+        final int purchasesCount = resultSet.getInt("purchases_count");
+        final int totalQuantity = resultSet.getInt("total_quantity");
+        final double totalCost = resultSet.getDouble("total_cost");
+
+        return new PurchaseStats(purchasesCount, totalQuantity, totalCost);
+    }
+
+    private Purchase getPurchaseFromResultSet(final ResultSet resultSet) throws SQLException {
+        final long id = resultSet.getLong("id");
         final LocalDateTime date = resultSet.getTimestamp("purchase_date").toLocalDateTime();
         final long productId = resultSet.getLong("product_id");
         final String productName = resultSet.getString("product_name");
@@ -234,4 +554,28 @@ public class PurchaseRepository implements DataRepository<Long, Purchase> {
                 supplier,
                 comment);
     }
+
+    private List<Object[]> getRows(final List<Purchase> values) {
+        final List<Object[]> rows = new ArrayList<>(values.size());
+
+        for (final Purchase value : values) {
+            rows.add(new Object[]{
+                    value.getProductId(),
+                    value.getProductName(),
+                    value.getCostPrice(),
+                    value.getQuantity(),
+                    value.getSupplier(),
+                    value.getComment()
+            });
+        }
+        return rows;
+    }
+
+    private Purchase setGeneratedColumns(final Purchase value, final ResultSet resultSet) throws SQLException {
+        value.setId(resultSet.getLong("id"));
+        value.setDate(resultSet.getTimestamp("purchase_date").toLocalDateTime());
+        value.setTotalPrice(resultSet.getDouble("total_price"));
+        value.markClean();
+        return value;
+    }
 }
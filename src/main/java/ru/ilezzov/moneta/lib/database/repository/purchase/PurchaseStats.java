@@ -0,0 +1,4 @@
+package ru.ilezzov.moneta.lib.database.repository.purchase;
+
+public record PurchaseStats(int purchasesCount, int totalQuantity, double totalCost) {
+}
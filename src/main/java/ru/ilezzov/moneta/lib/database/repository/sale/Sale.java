@@ -1,12 +1,13 @@
 package ru.ilezzov.moneta.lib.database.repository.sale;
 
+import ru.ilezzov.moneta.lib.database.repository.TrackedEntity;
 import ru.ilezzov.moneta.lib.enums.Marketplace;
 import ru.ilezzov.moneta.lib.utils.DateUtil;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
 
-public class Sale {
+public class Sale extends TrackedEntity {
     private long id;
     private LocalDateTime saleDate;
     private long productId;
@@ -49,34 +50,34 @@ public class Sale {
     public void  setId(long id) { this.id = id; }
 
     public LocalDateTime getSaleDate() { return saleDate; }
-    public void setSaleDate(LocalDateTime saleDate) { this.saleDate = saleDate; }
+    public void setSaleDate(LocalDateTime saleDate) { this.saleDate = saleDate; markDirty(); }
 
     public long getProductId() { return productId; }
-    public void setProductId(long productId) { this.productId = productId; }
+    public void setProductId(long productId) { this.productId = productId; markDirty(); }
 
     public String getProductName() { return productName; }
-    public void setProductName(String productName) { this.productName = productName; }
+    public void setProductName(String productName) { this.productName = productName; markDirty(); }
 
     public int getQuantity() { return quantity; }
-    public void setQuantity(int quantity) { this.quantity = quantity; }
+    public void setQuantity(int quantity) { this.quantity = quantity; markDirty(); }
 
     public double getUnitPrice() { return unitPrice; }
-    public void setUnitPrice(double unitPrice) { this.unitPrice = unitPrice; }
+    public void setUnitPrice(double unitPrice) { this.unitPrice = unitPrice; markDirty(); }
 
     public double getTotalPrice() { return totalPrice; }
     public void setTotalPrice(double totalPrice) { this.totalPrice = totalPrice; }
 
     public double getCostPrice() { return costPrice; }
-    public void setCostPrice(double costPrice) { this.costPrice = costPrice; }
+    public void setCostPrice(double costPrice) { this.costPrice = costPrice; markDirty(); }
 
     public double getMargin() { return margin; }
     public void setMargin(double margin) { this.margin = margin; }
 
     public Marketplace getMarketplace() { return marketplace; }
-    public void setMarketplace(Marketplace marketplace) { this.marketplace = marketplace; }
+    public void setMarketplace(Marketplace marketplace) { this.marketplace = marketplace; markDirty(); }
 
     public String getComment() { return comment; }
-    public void setComment(String comment) { this.comment = comment; }
+    public void setComment(String comment) { this.comment = comment; markDirty(); }
 
     @Override
     public String toString() {
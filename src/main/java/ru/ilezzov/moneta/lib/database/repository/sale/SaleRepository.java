@@ -1,72 +1,156 @@
 package ru.ilezzov.moneta.lib.database.repository.sale;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import ru.ilezzov.moneta.lib.api.model.Response;
+import ru.ilezzov.moneta.lib.database.BatchLoader;
+import ru.ilezzov.moneta.lib.database.BatchLoaderSettings;
+import ru.ilezzov.moneta.lib.database.BulkInsert;
+import ru.ilezzov.moneta.lib.database.CombinedStatsQuery;
+import ru.ilezzov.moneta.lib.database.GroupCommitQueue;
+import ru.ilezzov.moneta.lib.database.GroupCommitSettings;
 import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.SQLDialect;
+import ru.ilezzov.moneta.lib.database.StatsQuery;
 import ru.ilezzov.moneta.lib.database.repository.DataRepository;
+import ru.ilezzov.moneta.lib.database.repository.EntityCacheLoader;
+import ru.ilezzov.moneta.lib.database.repository.WriteBehindBuffer;
+import ru.ilezzov.moneta.lib.enums.Lane;
 import ru.ilezzov.moneta.lib.enums.Marketplace;
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class SaleRepository implements DataRepository<Long, Sale> {
+    private static final String GENERATED_COLUMNS = "id, sale_date, total_price, margin";
+    private static final List<String> BULK_COLUMNS = List.of("product_id", "product_name", "quantity", "unit_price", "cost_price", "marketplace", "comment");
+    private static final SaleStats EMPTY_STATS = new SaleStats(0, 0, 0, 0);
+
     private final SQLDatabase database;
+    private final Executor readExecutor;
+    private final Executor writeExecutor;
+    private final Executor analyticsExecutor;
+    private final AsyncLoadingCache<Long, Sale> asyncCache;
     private final Cache<Long, Sale> cache;
+    private final WriteBehindBuffer<Sale> writeBehind = new WriteBehindBuffer<>();
+    private volatile BatchLoader<Long, Sale> batchLoader;
+    private volatile GroupCommitQueue<Sale> groupCommit;
 
     public SaleRepository(final SQLDatabase database) {
+        this(database, ExecutorUtil.defaultExecutor());
+    }
+
+    /**
+     * @param executor runs the blocking database calls of the repository
+     */
+    public SaleRepository(final SQLDatabase database, final Executor executor) {
+        this(database, executor, executor, executor);
+    }
+
+    /**
+     * @param lanes runs point reads, writes and full-table reads and stats on their own {@link LaneScheduler} lanes
+     */
+    public SaleRepository(final SQLDatabase database, final LaneScheduler lanes) {
+        this(database, lanes.executor(Lane.READ), lanes.executor(Lane.WRITE), lanes.executor(Lane.ANALYTICS));
+    }
+
+    private SaleRepository(final SQLDatabase database, final Executor readExecutor, final Executor writeExecutor, final Executor analyticsExecutor) {
         this.database = database;
-        this.cache = Caffeine.newBuilder()
+        this.readExecutor = readExecutor;
+        this.writeExecutor = writeExecutor;
+        this.analyticsExecutor = analyticsExecutor;
+        this.asyncCache = Caffeine.newBuilder()
                 .maximumSize(1000) // Максимум 1000 записей в кеше
                 .expireAfterWrite(5, TimeUnit.MINUTES) 
+                .refreshAfterWrite(4, TimeUnit.MINUTES)
                 .removalListener((Long value, Sale sale, RemovalCause removalCause) -> {
-                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE) {
-                        save(sale);
+                    if (removalCause == RemovalCause.EXPIRED || removalCause == RemovalCause.SIZE || removalCause == RemovalCause.REPLACED) {
+                        writeBehind.evicted(sale);
                     }
                 })
-                .build();
+                .buildAsync(new EntityCacheLoader<>(this::loadAsync, this::loadManyAsync));
+        this.cache = asyncCache.synchronous();
     }
 
     @Override
     public CompletableFuture<Sale> get(final Long id) {
-        final Sale sale = cache.getIfPresent(id);
-
-        if (sale != null) {
-            return CompletableFuture.completedFuture(sale);
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        return CompletableFuture.supplyAsync(() -> loadFromDatabase(id));
+        return asyncCache.get(id);
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, Sale>> getMany(final Collection<Long> keys) {
+        return asyncCache.getAll(keys.stream().filter(Objects::nonNull).distinct().toList());
     }
 
     private Sale loadFromDatabase(final Long id) {
-        if (id == null) {
+        final String sql = "SELECT * FROM sales WHERE id = ?";
+
+        try {
+            return database.queryOne(sql, this::getSaleFromResultSet, id);
+        } catch (final SQLException e) {
             return null;
         }
+    }
 
-        final String sql = "SELECT * FROM sales WHERE id = ?";
+    /**
+     * Coalesces the loads of uncached sales that arrive within a short window into one {@code WHERE id = ANY(?)} query.
+     */
+    public void enableBatchLoading(final BatchLoaderSettings settings) {
+        this.batchLoader = new BatchLoader<>(settings, this::loadAllFromDatabase, readExecutor);
+    }
 
-        try (final ResultSet resultSet = database.executePreparedQuery(sql, id)) {
-            if (!resultSet.next()) {
-                return null;
-            }
+    private CompletableFuture<Sale> loadAsync(final Long id) {
+        final BatchLoader<Long, Sale> loader = this.batchLoader;
 
-            final Sale sale = getSaleFromResultSet(id, resultSet);
+        if (loader != null) {
+            return loader.load(id);
+        }
+        return CompletableFuture.supplyAsync(() -> loadFromDatabase(id), readExecutor);
+    }
 
-            this.cache.put(id, sale);
-            return sale;
-        } catch (final SQLException e) {
-            return null;
+    private Map<Long, Sale> loadAllFromDatabase(final List<Long> ids) throws SQLException {
+        final String sql = "SELECT * FROM sales WHERE id = ANY(?)";
+        final Map<Long, Sale> sales = new HashMap<>();
+
+        for (final Sale sale : database.query(sql, this::getSaleFromResultSet, (Object) ids.toArray(new Long[0]))) {
+            sales.put(sale.getId(), sale);
         }
+        return sales;
+    }
+
+    private CompletableFuture<Map<Long, Sale>> loadManyAsync(final List<Long> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return loadAllFromDatabase(ids);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, readExecutor);
     }
 
     @Override
@@ -80,18 +164,13 @@ public class SaleRepository implements DataRepository<Long, Sale> {
             final String sql = "SELECT * FROM sales WHERE sale_date > ?";
             final Object[] params = new Object[]{date};
 
-            try (final ResultSet resultSet = database.executePreparedQuery(sql, params)) {
-                final List<Sale> saleList = new ArrayList<>();
-
-                while (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final Sale sale = getSaleFromResultSet(id, resultSet);
+            try {
+                final List<Sale> saleList = database.query(sql, this::getSaleFromResultSet, params);
 
-                    if (addToCache) {
-                        this.cache.put(id, sale);
+                if (addToCache) {
+                    for (final Sale sale : saleList) {
+                        this.cache.put(sale.getId(), sale);
                     }
-
-                    saleList.add(sale);
                 }
 
                 return saleList;
@@ -99,17 +178,41 @@ public class SaleRepository implements DataRepository<Long, Sale> {
                 e.printStackTrace();
                 return null;
             }
-        });
+        }, analyticsExecutor);
+    }
+
+    @Override
+    public Stream<Sale> stream(final LocalDateTime date, final int fetchSize) {
+        final String sql = "SELECT * FROM sales WHERE sale_date > ?";
+
+        try {
+            return database.stream(sql, fetchSize, this::getSaleFromResultSet, date);
+        } catch (final SQLException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public CompletableFuture<Void> insert(final Sale value) {
+        if (value != null && value.getQuantity() <= 0) {
+            // Rejected before it can share a group commit with other sales
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Quantity must be positive: " + value.getQuantity()));
+        }
+
+        final GroupCommitQueue<Sale> queue = this.groupCommit;
+        if (queue != null && value != null) {
+            return queue.submit(value).thenAccept(inserted -> {});
+        }
+
         return CompletableFuture.runAsync(() -> {
             if (value == null) {
                 return;
             }
 
-            final String sql = "INSERT INTO sales (product_id, product_name, quantity, unit_price, cost_price, marketplace, comment) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING id, sale_date, total_price, margin";
+            final String sql = database.getDialect().returning(
+                    "INSERT INTO sales (product_id, product_name, quantity, unit_price, cost_price, marketplace, comment) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    GENERATED_COLUMNS
+            );
 
             final Object[] params = {
                 value.getProductId(),
@@ -122,25 +225,165 @@ public class SaleRepository implements DataRepository<Long, Sale> {
             };
 
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
+                final Sale inserted = database.queryOne(sql, resultSet -> setGeneratedColumns(value, resultSet), params);
+
+                if (inserted != null) {
+                    cache.put(inserted.getId(), inserted);
+                }
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, writeExecutor);
+    }
+
+    /**
+     * Routes {@link #insert} through a {@link GroupCommitQueue}: the sales are inserted by a single writer
+     * in groups sharing one transaction, and the returned futures complete once the group is committed.
+     */
+    public void enableGroupCommit(final GroupCommitSettings settings) {
+        this.groupCommit = new GroupCommitQueue<>("sales", database, settings, new GroupCommitQueue.GroupWriter<>() {
+            @Override
+            public void write(final Connection connection, final List<Sale> values) throws SQLException {
+                final Iterator<Sale> pending = values.iterator();
+                BulkInsert.insertReturning(connection, database.getDialect(), "sales", BULK_COLUMNS, getRows(values), GENERATED_COLUMNS,
+                        resultSet -> setGeneratedColumns(pending.next(), resultSet));
+            }
 
-                if (resultSet.next()) {
-                    final long id = resultSet.getLong("id");
-                    final LocalDateTime date = resultSet.getTimestamp("sale_date").toLocalDateTime();
-                    final double total_price = resultSet.getDouble("total_price");
-                    final double margin = resultSet.getDouble("margin");
+            @Override
+            public void committed(final List<Sale> values) {
+                for (final Sale value : values) {
+                    cache.put(value.getId(), value);
+                }
+            }
+        });
+    }
+
+    /**
+     * Commits the queued sales and switches {@link #insert} back to one statement per call.
+     */
+    public void disableGroupCommit() {
+        final GroupCommitQueue<Sale> queue = this.groupCommit;
+
+        if (queue != null) {
+            this.groupCommit = null;
+            queue.close();
+        }
+    }
+
+    /**
+     * Inserts the sales with multi-row INSERT statements of up to {@link BulkInsert#MAX_ROWS_PER_STATEMENT} rows,
+     * reading the generated columns back and caching the inserted sales.
+     * Every statement runs in its own transaction; the inserts stop at the first failed one, so the sales that were not inserted keep the id 0.
+     *
+     * @return the same list of sales
+     */
+    public CompletableFuture<List<Sale>> insertAll(final List<Sale> values) {
+        return CompletableFuture.supplyAsync(() -> {
+            for (int from = 0; from < values.size(); from += BulkInsert.MAX_ROWS_PER_STATEMENT) {
+                final List<Sale> chunk = values.subList(from, Math.min(values.size(), from + BulkInsert.MAX_ROWS_PER_STATEMENT));
+                final Iterator<Sale> pending = chunk.iterator();
+
+                try {
+                    database.inTransaction(connection -> {
+                        BulkInsert.insertReturning(connection, database.getDialect(), "sales", BULK_COLUMNS, getRows(chunk), GENERATED_COLUMNS,
+                                resultSet -> setGeneratedColumns(pending.next(), resultSet));
+                        return null;
+                    });
+                } catch (final SQLException e) {
+                    e.printStackTrace();
+                    // The chunk was rolled back, ids read before the failure are not valid
+                    for (final Sale value : chunk) {
+                        value.setId(0);
+                    }
+                    break;
+                }
+
+                for (final Sale value : chunk) {
+                    cache.put(value.getId(), value);
+                }
+            }
+            return values;
+        }, writeExecutor);
+    }
 
-                    value.setId(id);
-                    value.setSaleDate(date);
-                    value.setTotalPrice(total_price);
-                    value.setMargin(margin);
+    /**
+     * Inserts a sale of the product with the given name in one statement that also takes the quantity off
+     * the product stock, so the stock change is durable as soon as the statement commits.
+     * The prices are read from the product row on the server. The inserted sale is cached.
+     *
+     * @return the inserted sale, or {@code null} if there is no product with the given name
+     */
+    public CompletableFuture<Sale> insertForProduct(final String productName, final int quantity, final Marketplace marketplace, final String comment) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final Sale sale = database.getDialect() == SQLDialect.POSTGRESQL
+                        ? insertForProductWithCte(productName, quantity, marketplace, comment)
+                        : database.inTransaction(connection -> insertForProduct(connection, productName, quantity, marketplace, comment));
 
-                    cache.put(id, value);
+                if (sale != null) {
+                    cache.put(sale.getId(), sale);
                 }
+                return sale;
             } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, writeExecutor);
+    }
+
+    private Sale insertForProductWithCte(final String productName, final int quantity, final Marketplace marketplace, final String comment) throws SQLException {
+        final String sql = """
+            WITH product AS (
+                UPDATE products
+                SET stock = stock - ?
+                WHERE id = (SELECT id FROM products WHERE name = ? LIMIT 1)
+                RETURNING id, name, retail_price, cost_price
+            )
+            INSERT INTO sales (product_id, product_name, quantity, unit_price, cost_price, marketplace, comment)
+            SELECT id, name, ?, retail_price, cost_price, ?, ?
+            FROM product
+            RETURNING *
+            """;
+
+        return database.queryOne(sql, this::getSaleFromResultSet, quantity, productName, quantity, marketplace.getMarketplace(), comment);
+    }
+
+    /**
+     * H2 keeps the nested update even when the insert around it fails, so it runs in a transaction.
+     */
+    private Sale insertForProduct(final Connection connection, final String productName, final int quantity, final Marketplace marketplace, final String comment) throws SQLException {
+        final String sql = """
+            SELECT * FROM FINAL TABLE (
+                INSERT INTO sales (product_id, product_name, quantity, unit_price, cost_price, marketplace, comment)
+                SELECT id, name, ?, retail_price, cost_price, ?, ?
+                FROM FINAL TABLE (
+                    UPDATE products
+                    SET stock = stock - ?
+                    WHERE id = (SELECT id FROM products WHERE name = ? LIMIT 1)
+                )
+            )
+            """;
+
+        try (final PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setInt(1, quantity);
+            ps.setString(2, marketplace.getMarketplace());
+            ps.setString(3, comment);
+            ps.setInt(4, quantity);
+            ps.setString(5, productName);
 
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                return resultSet.next() ? getSaleFromResultSet(resultSet) : null;
             }
-        });
+        }
+    }
+
+    /**
+     * Inserts the sales on the given connection using the fastest path of the dialect (COPY on PostgreSQL).
+     * Ids and generated columns are not read back and the sales are not cached.
+     *
+     * @return the number of inserted rows
+     */
+    public long bulkInsert(final Connection connection, final List<Sale> values) throws SQLException {
+        return BulkInsert.into(connection, database.getDialect(), "sales", BULK_COLUMNS, getRows(values));
     }
 
     @Override
@@ -163,6 +406,7 @@ public class SaleRepository implements DataRepository<Long, Sale> {
                 WHERE id = ?;
                 """;
 
+            final long version = value.getVersion();
             final Object[] params = {
                     value.getSaleDate(),
                     value.getProductId(),
@@ -177,10 +421,11 @@ public class SaleRepository implements DataRepository<Long, Sale> {
 
             try {
                 database.executePreparedUpdate(sql, params);
+                value.markSaved(version);
             } catch (final SQLException e) {
 
             }
-        });
+        }, writeExecutor);
     }
 
     @Override
@@ -199,100 +444,91 @@ public class SaleRepository implements DataRepository<Long, Sale> {
                 WHERE id = ?;
                 """;
 
-            final Map<Long, Sale> map = cache.asMap();
-            final List<Object[]> batchParams = getObjects(map);
-
             try {
-                database.executePreparedBatchUpdate(sql, batchParams);
+                writeBehind.flush(cache.asMap().values(), values -> database.executePreparedBatchUpdate(sql, getObjects(values)));
             } catch (final SQLException e) {
-
+                e.printStackTrace();
             }
-        });
+        }, writeExecutor);
     }
 
     public CompletableFuture<SaleStats> getSaleStatsByDate(final LocalDate start, final LocalDate end) {
-        return CompletableFuture.supplyAsync(() ->{
-            final String sql = """
-            SELECT COUNT(*) AS sales_count,
-                COALESCE(SUM(total_price), 0) AS total_turnover,
-                COALESCE(SUM(margin), 0) AS total_revenue,
-                COALESCE(AVG(margin), 0) AS average_margin
-            FROM sales
-            WHERE sale_date >= ? AND sale_date < ?;
-            """;
-
-            final Object[] params = {
-                    Timestamp.valueOf(start.atStartOfDay()),
-                    Timestamp.valueOf(end.atStartOfDay())
-            };
-
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                final ResultSet resultSet = database.executePreparedQuery(sql, params);
-
-                if (!resultSet.next()) {
-                    return null;
-                }
-
-                final int salesCount = resultSet.getInt("sales_count");
-                final double totalTurnover = resultSet.getDouble("total_turnover");
-                final double totalRevenue = resultSet.getDouble("total_revenue");
-                final double averageMargin = resultSet.getDouble("average_margin");
-                return new SaleStats(salesCount, totalTurnover, totalRevenue, averageMargin);
+                return statsQuery(database.getDialect(), start, end, null).total(database, SaleRepository::getSaleStatsFromResultSet);
+            } catch (SQLException e) {
+                return null;
+            }
+        }, analyticsExecutor);
+    }
 
+    /**
+     * Sale stats of the days from {@code start} inclusive to {@code end} exclusive, grouped by bucket.
+     *
+     * @return one entry per bucket in date order, empty buckets included
+     */
+    public CompletableFuture<List<SaleStats>> getSaleStatsGroupBy(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return statsQuery(database.getDialect(), start, end, bucket).buckets(database, SaleRepository::getSaleStatsFromResultSet, EMPTY_STATS);
             } catch (SQLException e) {
                 return null;
             }
-        });
+        }, analyticsExecutor);
     }
 
     public CompletableFuture<List<SaleStats>> getSaleStatsGroupByMonth(final int year) {
-        return CompletableFuture.supplyAsync(() -> {
-            final String sql = """
-            SELECT m.month,
-                   COALESCE(s.sales_count, 0) AS sales_count,
-                   COALESCE(s.total_turnover, 0) AS total_turnover,
-                   COALESCE(s.total_revenue, 0) AS total_revenue,
-                   COALESCE(s.average_margin, 0) AS average_margin
-            FROM generate_series(1, 12) AS m(month)
-            LEFT JOIN (
-                SELECT EXTRACT(MONTH FROM sale_date) AS month,
-                       COUNT(*) AS sales_count,
-                       SUM(total_price) AS total_turnover,
-                       SUM(margin) AS total_revenue,
-                       AVG(margin) AS average_margin
-                FROM sales
-                WHERE EXTRACT(YEAR FROM sale_date) = ?
-                GROUP BY month
-            ) s ON s.month = m.month
-            ORDER BY m.month;
-            """;
+        return getSaleStatsGroupBy(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1), StatsBucket.MONTH);
+    }
 
-            final Object[] params = { year };
-            final List<SaleStats> result = new ArrayList<>();
+    /**
+     * Recomputes the {@code sales_monthly} rollup from the sales table, e.g. after the sales were changed with triggers disabled.
+     * Writes to the sales wait until the rebuild commits. Does nothing on H2, which has no rollup.
+     */
+    public CompletableFuture<Void> rebuildMonthlyRollup() {
+        return CompletableFuture.runAsync(() -> {
+            if (database.getDialect() != SQLDialect.POSTGRESQL) {
+                return;
+            }
 
             try {
-                final ResultSet rs = database.executePreparedQuery(sql, params);
-
-                while (rs.next()) {
-                    int salesCount = rs.getInt("sales_count");
-                    double totalTurnover = rs.getDouble("total_turnover");
-                    double totalRevenue = rs.getDouble("total_revenue");
-                    double averageMargin = rs.getDouble("average_margin");
+                database.queryOne("SELECT moneta_rebuild_sales_monthly()", resultSet -> null);
+            } catch (final SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }, analyticsExecutor);
+    }
 
-                    result.add(new SaleStats(salesCount, totalTurnover, totalRevenue, averageMargin));
-                }
-                return result;
+    /**
+     * Periods of whole months are read from the {@code sales_monthly} rollup on PostgreSQL, the rest from the sales.
+     * The query can run alone or in a {@link CombinedStatsQuery} with the stats of other tables.
+     *
+     * @param bucket the buckets to group by, {@code null} for the total of the period
+     */
+    public static StatsQuery statsQuery(final SQLDialect dialect, final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        if (dialect == SQLDialect.POSTGRESQL && StatsQuery.isMonthAligned(start, end, bucket)) {
+            return StatsQuery.from("sales_monthly", "month")
+                    .sum("sales_count", "sales_count")
+                    .sum("turnover", "total_turnover")
+                    .sum("margin", "total_revenue")
+                    .aggregate("COALESCE(SUM(margin) / NULLIF(SUM(sales_count), 0), 0)", "average_margin")
+                    .between(start, end)
+                    .groupBy(bucket);
+        }
 
-            } catch (SQLException e) {
-                return null;
-            }
-        });
+        return StatsQuery.from("sales", "sale_date")
+                .count("sales_count")
+                .sum("total_price", "total_turnover")
+                .sum("margin", "total_revenue")
+                .avg("margin", "average_margin")
+                .between(start, end)
+                .groupBy(bucket);
     }
 
-    private List<Object[]> getObjects(final Map<Long, Sale> map) {
-        final List<Object[]> batchParams = new ArrayList<>(map.size());
+    private List<Object[]> getObjects(final List<Sale> values) {
+        final List<Object[]> batchParams = new ArrayList<>(values.size());
 
-        for (final Sale value: map.values()) {
+        for (final Sale value: values) {
             final Object[] params = {
                     value.getSaleDate(),
                     value.getProductId(),
@@ -309,7 +545,17 @@ public class SaleRepository implements DataRepository<Long, Sale> {
         return batchParams;
     }
 
-    private Sale getSaleFromResultSet(final long id, final ResultSet resultSet) throws SQLException {
+    public static SaleStats getSaleStatsFromResultSet(final ResultSet resultSet) throws SQLException {
+        final int salesCount = resultSet.getInt("sales_count");
+        final double totalTurnover = resultSet.getDouble("total_turnover");
+        final double totalRevenue = resultSet.getDouble("total_revenue");
+        final double averageMargin = resultSet.getDouble("average_margin");
+
+        return new SaleStats(salesCount, totalTurnover, totalRevenue, averageMargin);
+    }
+
+    private Sale getSaleFromResultSet(final ResultSet resultSet) throws SQLException {
+        final long id = resultSet.getLong("id");
         final LocalDateTime date = resultSet.getTimestamp("sale_date").toLocalDateTime();
         final long productId = resultSet.getLong("product_id");
         final String productName = resultSet.getString("product_name");
@@ -335,4 +581,30 @@ public class SaleRepository implements DataRepository<Long, Sale> {
                 comment
         );
     }
+
+    private List<Object[]> getRows(final List<Sale> values) {
+        final List<Object[]> rows = new ArrayList<>(values.size());
+
+        for (final Sale value : values) {
+            rows.add(new Object[]{
+                    value.getProductId(),
+                    value.getProductName(),
+                    value.getQuantity(),
+                    value.getUnitPrice(),
+                    value.getCostPrice(),
+                    value.getMarketplace().getMarketplace(),
+                    value.getComment()
+            });
+        }
+        return rows;
+    }
+
+    private Sale setGeneratedColumns(final Sale value, final ResultSet resultSet) throws SQLException {
+        value.setId(resultSet.getLong("id"));
+        value.setSaleDate(resultSet.getTimestamp("sale_date").toLocalDateTime());
+        value.setTotalPrice(resultSet.getDouble("total_price"));
+        value.setMargin(resultSet.getDouble("margin"));
+        value.markClean();
+        return value;
+    }
 }
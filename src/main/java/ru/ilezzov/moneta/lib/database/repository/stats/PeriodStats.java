@@ -0,0 +1,7 @@
+package ru.ilezzov.moneta.lib.database.repository.stats;
+
+import ru.ilezzov.moneta.lib.database.repository.expense.ExpenseStats;
+import ru.ilezzov.moneta.lib.database.repository.sale.SaleStats;
+
+public record PeriodStats(SaleStats sales, ExpenseStats expenses) {
+}
@@ -0,0 +1,95 @@
+package ru.ilezzov.moneta.lib.database.repository.stats;
+
+import ru.ilezzov.moneta.lib.database.CombinedStatsQuery;
+import ru.ilezzov.moneta.lib.database.SQLDatabase;
+import ru.ilezzov.moneta.lib.database.repository.expense.ExpenseRepository;
+import ru.ilezzov.moneta.lib.database.repository.expense.ExpenseStats;
+import ru.ilezzov.moneta.lib.database.repository.sale.SaleRepository;
+import ru.ilezzov.moneta.lib.database.repository.sale.SaleStats;
+import ru.ilezzov.moneta.lib.enums.Lane;
+import ru.ilezzov.moneta.lib.enums.StatsBucket;
+import ru.ilezzov.moneta.lib.utils.ExecutorUtil;
+import ru.ilezzov.moneta.lib.utils.LaneScheduler;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Sale and expense stats of a period read together in one query, see {@link CombinedStatsQuery}.
+ */
+public class StatsRepository {
+    private static final PeriodStats EMPTY_STATS = new PeriodStats(new SaleStats(0, 0, 0, 0), new ExpenseStats(0));
+
+    private final SQLDatabase database;
+    private final Executor executor;
+
+    public StatsRepository(final SQLDatabase database) {
+        this(database, ExecutorUtil.defaultExecutor());
+    }
+
+    /**
+     * @param executor runs the blocking database calls of the repository
+     */
+    public StatsRepository(final SQLDatabase database, final Executor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    /**
+     * @param lanes runs the stats queries on the {@link Lane#ANALYTICS} lane
+     */
+    public StatsRepository(final SQLDatabase database, final LaneScheduler lanes) {
+        this(database, lanes.executor(Lane.ANALYTICS));
+    }
+
+    /**
+     * Stats of the days from {@code start} inclusive to {@code end} exclusive.
+     *
+     * @return the stats, or {@code null} if the query failed
+     */
+    public CompletableFuture<PeriodStats> getStatsByDate(final LocalDate start, final LocalDate end) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return statsQuery(start, end, null).total(database, this::getPeriodStatsFromResultSet);
+            } catch (final SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Stats of the days from {@code start} inclusive to {@code end} exclusive, grouped by bucket.
+     *
+     * @return one entry per bucket in date order, empty buckets included, or {@code null} if the query failed
+     */
+    public CompletableFuture<List<PeriodStats>> getStatsGroupBy(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return statsQuery(start, end, bucket).buckets(database, this::getPeriodStatsFromResultSet, EMPTY_STATS);
+            } catch (final SQLException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }, executor);
+    }
+
+    public CompletableFuture<List<PeriodStats>> getStatsGroupByMonth(final int year) {
+        return getStatsGroupBy(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1), StatsBucket.MONTH);
+    }
+
+    private CombinedStatsQuery statsQuery(final LocalDate start, final LocalDate end, final StatsBucket bucket) {
+        return CombinedStatsQuery.of(
+                SaleRepository.statsQuery(database.getDialect(), start, end, bucket),
+                ExpenseRepository.statsQuery(database.getDialect(), start, end, bucket)
+        );
+    }
+
+    private PeriodStats getPeriodStatsFromResultSet(final ResultSet resultSet) throws SQLException {
+        return new PeriodStats(SaleRepository.getSaleStatsFromResultSet(resultSet), ExpenseRepository.getExpenseStatsFromResultSet(resultSet));
+    }
+}
@@ -0,0 +1,23 @@
+package ru.ilezzov.moneta.lib.enums;
+
+/**
+ * The lanes of a {@link ru.ilezzov.moneta.lib.utils.LaneScheduler}, each with its own threads and queue.
+ */
+public enum Lane {
+    /**
+     * Point reads by id or name, the latency-sensitive calls of a bot or UI.
+     */
+    READ,
+    /**
+     * Inserts and updates.
+     */
+    WRITE,
+    /**
+     * Full-table reads, stats and reports.
+     */
+    ANALYTICS,
+    /**
+     * Spreadsheet exports and their HTTP uploads.
+     */
+    EXPORT
+}
@@ -0,0 +1,54 @@
+package ru.ilezzov.moneta.lib.enums;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * The period the stats are grouped by. Weeks start on Monday, quarters in January, April, July and October.
+ */
+public enum StatsBucket {
+    DAY("day"),
+    WEEK("week"),
+    MONTH("month"),
+    QUARTER("quarter");
+
+    final String unit;
+
+    StatsBucket(final String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * @return the unit name understood by {@code date_trunc}
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the start of the bucket containing the date, the same value {@code date_trunc} returns
+     */
+    public LocalDateTime truncate(final LocalDateTime date) {
+        final LocalDateTime day = date.toLocalDate().atStartOfDay();
+
+        return switch (this) {
+            case DAY -> day;
+            case WEEK -> day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> day.withDayOfMonth(1);
+            case QUARTER -> day.withDayOfMonth(1).withMonth((date.getMonthValue() - 1) / 3 * 3 + 1);
+        };
+    }
+
+    /**
+     * @return the start of the bucket following the one starting at {@code bucketStart}
+     */
+    public LocalDateTime next(final LocalDateTime bucketStart) {
+        return switch (this) {
+            case DAY -> bucketStart.plusDays(1);
+            case WEEK -> bucketStart.plusWeeks(1);
+            case MONTH -> bucketStart.plusMonths(1);
+            case QUARTER -> bucketStart.plusMonths(3);
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package ru.ilezzov.moneta.lib.utils;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the blocking JDBC and HTTP calls of the library.
+ * They never run on {@code ForkJoinPool.commonPool()}, so database waits do not starve the parallel work of the application.
+ */
+public class ExecutorUtil {
+    public static final int DEFAULT_IO_THREADS = 16;
+
+    /**
+     * @return the shared executor used when no executor is given, {@value #DEFAULT_IO_THREADS} daemon threads
+     */
+    public static Executor defaultExecutor() {
+        return DefaultHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads for blocking calls.
+     *
+     * @param threads the number of threads, i.e. how many blocking calls run at the same time
+     * @param name    the thread name prefix, threads are named {@code name-1}, {@code name-2}...
+     */
+    public static ExecutorService newIoExecutor(final int threads, final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return whether the running JVM supports virtual threads, i.e. is Java 21 or newer
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per task. At most {@code maxConcurrentCalls} tasks run at the same time,
+     * the rest park cheaply on a fair semaphore instead of queueing for a pool thread or timing out on a database connection.
+     * Resolved reflectively, so the library still builds and runs on Java 17.
+     *
+     * @param maxConcurrentCalls how many tasks may run at the same time, usually the number of database connections
+     * @throws IllegalStateException if the running JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor(final int maxConcurrentCalls) {
+        if (!isVirtualThreadsSupported()) {
+            throw new IllegalStateException("Virtual threads require Java 21 or newer, running on " + Runtime.version());
+        }
+
+        final ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available", e);
+        }
+
+        return new LimitedExecutorService(executor, maxConcurrentCalls);
+    }
+
+    private static final class DefaultHolder {
+        private static final Executor EXECUTOR = newIoExecutor(DEFAULT_IO_THREADS, "moneta-io");
+    }
+
+    /**
+     * Runs every task on the delegate, but lets only as many tasks past the semaphore as there are permits.
+     */
+    private static final class LimitedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private LimitedExecutorService(final ExecutorService delegate, final int permits) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(permits, true);
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            delegate.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
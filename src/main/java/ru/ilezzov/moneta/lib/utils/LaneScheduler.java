@@ -0,0 +1,108 @@
+package ru.ilezzov.moneta.lib.utils;
+
+import ru.ilezzov.moneta.lib.enums.Lane;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bulkhead for the blocking calls of the library: every {@link Lane} has its own fixed threads and bounded queue,
+ * so a long export or yearly report can only occupy its own lane and never delays point reads and writes.
+ * The write, analytics and export lanes also share {@link LaneSettings#backgroundThreads()} permits, so together
+ * they never hold more connections than that and the rest stay free for point reads.
+ * A call submitted to a lane with a full queue fails with {@link RejectedExecutionException}.
+ */
+public class LaneScheduler implements AutoCloseable {
+    private final Map<Lane, ThreadPoolExecutor> lanes = new EnumMap<>(Lane.class);
+
+    private final Map<Lane, Executor> executors = new EnumMap<>(Lane.class);
+    private final Semaphore background;
+
+    public LaneScheduler(final LaneSettings settings) {
+        this.background = new Semaphore(settings.backgroundThreads(), true);
+
+        lanes.put(Lane.READ, newLane(Lane.READ, settings.readThreads(), settings.queueCapacity()));
+        lanes.put(Lane.WRITE, newLane(Lane.WRITE, settings.writeThreads(), settings.queueCapacity()));
+        lanes.put(Lane.ANALYTICS, newLane(Lane.ANALYTICS, settings.analyticsThreads(), settings.queueCapacity()));
+        lanes.put(Lane.EXPORT, newLane(Lane.EXPORT, settings.exportThreads(), settings.queueCapacity()));
+
+        for (final Map.Entry<Lane, ThreadPoolExecutor> lane : lanes.entrySet()) {
+            final ThreadPoolExecutor executor = lane.getValue();
+            executors.put(lane.getKey(), lane.getKey() == Lane.READ ? executor : task -> executor.execute(() -> runInBackground(task)));
+        }
+    }
+
+    /**
+     * @return the executor of the lane
+     */
+    public Executor executor(final Lane lane) {
+        return executors.get(lane);
+    }
+
+    /**
+     * Runs a call of a non-read lane once one of the {@link LaneSettings#backgroundThreads()} shared permits is free.
+     */
+    private void runInBackground(final Runnable task) {
+        try {
+            background.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a background permit", e);
+        }
+
+        try {
+            task.run();
+        } finally {
+            background.release();
+        }
+    }
+
+    /**
+     * @return how many calls are waiting in the lane
+     */
+    public int queued(final Lane lane) {
+        return lanes.get(lane).getQueue().size();
+    }
+
+    /**
+     * @return how many calls of the lane are running right now
+     */
+    public int active(final Lane lane) {
+        return lanes.get(lane).getActiveCount();
+    }
+
+    private static ThreadPoolExecutor newLane(final Lane lane, final int threads, final int queueCapacity) {
+        final String name = "moneta-" + lane.name().toLowerCase(Locale.ROOT) + "-";
+        final AtomicInteger counter = new AtomicInteger();
+
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            final Thread thread = new Thread(runnable, name + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops accepting calls and waits for the queued ones to finish.
+     */
+    @Override
+    public void close() {
+        lanes.values().forEach(ThreadPoolExecutor::shutdown);
+
+        try {
+            for (final ThreadPoolExecutor lane : lanes.values()) {
+                lane.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.ilezzov.moneta.lib.utils;
+
+/**
+ * Settings of a {@link LaneScheduler}.
+ *
+ * @param readThreads       how many point reads run at the same time
+ * @param writeThreads      how many writes run at the same time
+ * @param analyticsThreads  how many full-table reads and stats queries run at the same time
+ * @param exportThreads     how many export steps run at the same time
+ * @param backgroundThreads how many calls of the write, analytics and export lanes run at the same time in total
+ * @param queueCapacity     how many calls may wait in each lane before new ones are rejected
+ */
+public record LaneSettings(int readThreads, int writeThreads, int analyticsThreads, int exportThreads, int backgroundThreads, int queueCapacity) {
+
+    public LaneSettings {
+        if (readThreads < 1 || writeThreads < 1 || analyticsThreads < 1 || exportThreads < 1 || backgroundThreads < 1) {
+            throw new IllegalArgumentException("Every lane needs at least one thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+    }
+
+    /**
+     * Lane sizes without a shared limit on the write, analytics and export lanes.
+     */
+    public LaneSettings(final int readThreads, final int writeThreads, final int analyticsThreads, final int exportThreads, final int queueCapacity) {
+        this(readThreads, writeThreads, analyticsThreads, exportThreads, writeThreads + analyticsThreads + exportThreads, queueCapacity);
+    }
+
+    /**
+     * Sizes the lanes for a database with the given number of connections.
+     * The calls of the write, analytics and export lanes together hold at most {@code connections / 2} connections,
+     * so the other half stays free for point reads however busy the other lanes are.
+     * With a single connection nothing can be reserved and all lanes share it.
+     */
+    public static LaneSettings forConnections(final int connections) {
+        final int reserved = (connections + 1) / 2;
+        final int background = Math.max(1, connections - reserved);
+        final int quarter = Math.max(1, connections / 4);
+        return new LaneSettings(connections, quarter, quarter, 1, background, 10_000);
+    }
+}
@@ -0,0 +1,52 @@
+CREATE TABLE IF NOT EXISTS products (
+    id BIGSERIAL PRIMARY KEY,               -- ID
+    name VARCHAR NOT NULL,                  -- Название
+    category VARCHAR NOT NULL,              -- Категория
+    cost_price REAL NOT NULL,               -- Себестоимость
+    retail_price REAL NOT NULL,             -- Розничная цена
+    unit VARCHAR NOT NULL,                  -- Единица измерения
+    supplier VARCHAR NOT NULL,              -- Поставщик
+    stock INTEGER DEFAULT 0,                -- Остаток
+    minimum INTEGER DEFAULT 0,              -- Минимальный остаток
+    status VARCHAR NOT NULL                 -- Статус
+);
+
+CREATE TABLE IF NOT EXISTS sales (
+    id BIGSERIAL PRIMARY KEY,                                                               -- ID
+    sale_date TIMESTAMP DEFAULT NOW(),                                                      -- Дата
+    product_id INTEGER NOT NULL,                                                            -- ID Товара
+    product_name VARCHAR NOT NULL,                                                          -- Название товара
+    quantity INTEGER NOT NULL CHECK (quantity > 0),                                         -- Кол-во проданного товара
+    unit_price NUMERIC(12, 2) NOT NULL,                                                     -- Розничная цена за штуку
+    total_price NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price),                 -- Сумма продажи
+    cost_price NUMERIC(12, 2) NOT NULL,                                                     -- Себестоимость одной штуки
+    margin NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price - (cost_price * quantity)),      -- Маржа
+    marketplace VARCHAR NOT NULL,                                                           -- Маркетплейс
+    comment VARCHAR                                                                         -- Комментарий
+);
+
+CREATE TABLE IF NOT EXISTS purchases (
+    id BIGSERIAL  PRIMARY KEY,                                              -- ID
+    purchase_date TIMESTAMP DEFAULT NOW(),                                  -- Дата
+    product_id INTEGER NOT NULL,                                            -- ID Товара
+    product_name VARCHAR NOT NULL,                                          -- Название товара
+    cost_price REAL NOT NULL,                                               -- Себестоимость
+    quantity INTEGER NOT NULL CHECK (quantity > 0),                         -- Количество
+    total_price NUMERIC(12, 2) GENERATED ALWAYS AS (cost_price * quantity), -- Общая сумма
+    supplier VARCHAR NOT NULL,                                              -- Поставщик
+    comment VARCHAR                                                         -- Комментарий
+);
+
+CREATE TABLE IF NOT EXISTS expenses (
+    id BIGSERIAL  PRIMARY KEY,              -- ID
+    expense_date TIMESTAMP DEFAULT NOW(),   -- Дата
+    category VARCHAR NOT NULL,              -- Категория
+    description VARCHAR NOT NULL,           -- Описание
+    amount REAL NOT NULL,                   -- Сумма
+    comment VARCHAR                         -- Комментарий
+);
+
+CREATE TABLE IF NOT EXISTS last_export (
+    id BIGSERIAL PRIMARY KEY,
+    export_date TIMESTAMP
+)
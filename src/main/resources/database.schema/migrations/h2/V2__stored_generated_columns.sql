@@ -0,0 +1 @@
+-- H2 always stores generated columns, nothing to convert.
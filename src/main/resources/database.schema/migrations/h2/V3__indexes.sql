@@ -0,0 +1,7 @@
+-- Product lookups by name, and no duplicate names
+CREATE UNIQUE INDEX IF NOT EXISTS products_name_key ON products (name);
+
+-- Date range reads and stats
+CREATE INDEX IF NOT EXISTS sales_sale_date_idx ON sales (sale_date);
+CREATE INDEX IF NOT EXISTS purchases_purchase_date_idx ON purchases (purchase_date);
+CREATE INDEX IF NOT EXISTS expenses_expense_date_idx ON expenses (expense_date);
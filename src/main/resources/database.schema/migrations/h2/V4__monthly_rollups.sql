@@ -0,0 +1 @@
+-- The monthly rollups are maintained by PostgreSQL triggers, H2 aggregates the raw rows.
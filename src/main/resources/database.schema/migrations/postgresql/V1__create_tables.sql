@@ -20,7 +20,7 @@ CREATE TABLE IF NOT EXISTS sales (
     unit_price NUMERIC(12, 2) NOT NULL,                                                     -- Розничная цена за штуку
     total_price NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price) STORED,          -- Сумма продажи
     cost_price NUMERIC(12, 2) NOT NULL,                                                     -- Себестоимость одной штуки
-    margin NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price - (cost_price * quantity)),      -- Маржа
+    margin NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price - (cost_price * quantity)) STORED, -- Маржа
     marketplace TEXT NOT NULL,                                                              -- Маркетплейс
     comment TEXT                                                                            -- Комментарий
 );
@@ -32,7 +32,7 @@ CREATE TABLE IF NOT EXISTS purchases (
     product_name TEXT NOT NULL,                                             -- Название товара
     cost_price REAL NOT NULL,                                               -- Себестоимость
     quantity INTEGER NOT NULL CHECK (quantity > 0),                         -- Количество
-    total_price NUMERIC(12, 2) GENERATED ALWAYS AS (cost_price * quantity), -- Общая сумма
+    total_price NUMERIC(12, 2) GENERATED ALWAYS AS (cost_price * quantity) STORED, -- Общая сумма
     supplier TEXT NOT NULL,                                                 -- Поставщик
     comment TEXT                                                            -- Комментарий
 );
@@ -0,0 +1,24 @@
+-- Before PostgreSQL 18 generated columns had to be STORED, since 18 they are VIRTUAL by default.
+-- Tables created by the old schema on PostgreSQL 18 therefore compute sales.margin and purchases.total_price
+-- on every read and cannot index them. Turn them into stored columns, which rewrites these tables once.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = 'sales'::regclass AND attname = 'margin' AND attgenerated = 'v') THEN
+        ALTER TABLE sales
+            DROP COLUMN margin,
+            ADD COLUMN margin NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price - (cost_price * quantity)) STORED;
+    END IF;
+
+    IF EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = 'sales'::regclass AND attname = 'total_price' AND attgenerated = 'v') THEN
+        ALTER TABLE sales
+            DROP COLUMN total_price,
+            ADD COLUMN total_price NUMERIC(12, 2) GENERATED ALWAYS AS (quantity * unit_price) STORED;
+    END IF;
+
+    IF EXISTS (SELECT 1 FROM pg_attribute WHERE attrelid = 'purchases'::regclass AND attname = 'total_price' AND attgenerated = 'v') THEN
+        ALTER TABLE purchases
+            DROP COLUMN total_price,
+            ADD COLUMN total_price NUMERIC(12, 2) GENERATED ALWAYS AS (cost_price * quantity) STORED;
+    END IF;
+END
+$$;
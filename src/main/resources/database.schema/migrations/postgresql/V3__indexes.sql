@@ -0,0 +1,11 @@
+-- moneta:no-transaction
+-- Built with CONCURRENTLY, so reads and writes keep running while the indexes are created.
+-- Every statement is idempotent: an interrupted run is simply repeated on the next start.
+
+-- Product lookups by name, and no duplicate names
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS products_name_key ON products (name);
+
+-- Date range reads and stats; the included columns let the aggregations run as index-only scans
+CREATE INDEX CONCURRENTLY IF NOT EXISTS sales_sale_date_idx ON sales (sale_date) INCLUDE (total_price, margin);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS purchases_purchase_date_idx ON purchases (purchase_date) INCLUDE (total_price);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS expenses_expense_date_idx ON expenses (expense_date) INCLUDE (amount);
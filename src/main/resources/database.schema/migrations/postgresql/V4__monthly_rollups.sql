@@ -0,0 +1,135 @@
+-- Monthly totals of sales and expenses, so stats of whole months read at most a few rows per month
+-- instead of aggregating the raw rows. Statement-level triggers keep them up to date for every write path,
+-- including multi-row inserts and COPY. Every month is split into slots picked by the backend, so concurrent
+-- writers of the current month do not queue for the lock of a single row. Readers sum the slots.
+
+CREATE TABLE IF NOT EXISTS sales_monthly (
+    month TIMESTAMP NOT NULL,                   -- Начало месяца
+    slot SMALLINT NOT NULL,                     -- Слот записи
+    sales_count BIGINT NOT NULL DEFAULT 0,      -- Кол-во продаж
+    turnover NUMERIC(14, 2) NOT NULL DEFAULT 0, -- Оборот
+    margin NUMERIC(14, 2) NOT NULL DEFAULT 0,   -- Сумма маржи
+    PRIMARY KEY (month, slot)
+);
+
+CREATE TABLE IF NOT EXISTS expenses_monthly (
+    month TIMESTAMP NOT NULL,                   -- Начало месяца
+    slot SMALLINT NOT NULL,                     -- Слот записи
+    amount NUMERIC(14, 2) NOT NULL DEFAULT 0,   -- Сумма расходов
+    PRIMARY KEY (month, slot)
+);
+
+CREATE OR REPLACE FUNCTION moneta_sales_monthly_apply() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO sales_monthly AS m (month, slot, sales_count, turnover, margin)
+        SELECT date_trunc('month', sale_date), pg_backend_pid() % 16, COUNT(*), SUM(total_price), SUM(margin)
+        FROM new_rows
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE
+            SET sales_count = m.sales_count + EXCLUDED.sales_count,
+                turnover = m.turnover + EXCLUDED.turnover,
+                margin = m.margin + EXCLUDED.margin;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO sales_monthly AS m (month, slot, sales_count, turnover, margin)
+        SELECT date_trunc('month', sale_date), pg_backend_pid() % 16, -COUNT(*), -SUM(total_price), -SUM(margin)
+        FROM old_rows
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE
+            SET sales_count = m.sales_count + EXCLUDED.sales_count,
+                turnover = m.turnover + EXCLUDED.turnover,
+                margin = m.margin + EXCLUDED.margin;
+    ELSE
+        INSERT INTO sales_monthly AS m (month, slot, sales_count, turnover, margin)
+        SELECT date_trunc('month', sale_date), pg_backend_pid() % 16, SUM(n), SUM(total_price), SUM(margin)
+        FROM (
+            SELECT sale_date, 1 AS n, total_price, margin FROM new_rows
+            UNION ALL
+            SELECT sale_date, -1, -total_price, -margin FROM old_rows
+        ) AS delta
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE
+            SET sales_count = m.sales_count + EXCLUDED.sales_count,
+                turnover = m.turnover + EXCLUDED.turnover,
+                margin = m.margin + EXCLUDED.margin;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION moneta_expenses_monthly_apply() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO expenses_monthly AS m (month, slot, amount)
+        SELECT date_trunc('month', expense_date), pg_backend_pid() % 16, SUM(amount)
+        FROM new_rows
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE SET amount = m.amount + EXCLUDED.amount;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO expenses_monthly AS m (month, slot, amount)
+        SELECT date_trunc('month', expense_date), pg_backend_pid() % 16, -SUM(amount)
+        FROM old_rows
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE SET amount = m.amount + EXCLUDED.amount;
+    ELSE
+        INSERT INTO expenses_monthly AS m (month, slot, amount)
+        SELECT date_trunc('month', expense_date), pg_backend_pid() % 16, SUM(amount)
+        FROM (
+            SELECT expense_date, amount FROM new_rows
+            UNION ALL
+            SELECT expense_date, -amount FROM old_rows
+        ) AS delta
+        GROUP BY 1 ORDER BY 1
+        ON CONFLICT (month, slot) DO UPDATE SET amount = m.amount + EXCLUDED.amount;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+-- Recompute the rollups from the raw rows; writers wait until the rebuild commits
+CREATE OR REPLACE FUNCTION moneta_rebuild_sales_monthly() RETURNS void LANGUAGE plpgsql AS $$
+BEGIN
+    LOCK TABLE sales IN SHARE ROW EXCLUSIVE MODE;
+    DELETE FROM sales_monthly;
+    INSERT INTO sales_monthly (month, slot, sales_count, turnover, margin)
+    SELECT date_trunc('month', sale_date), 0, COUNT(*), COALESCE(SUM(total_price), 0), COALESCE(SUM(margin), 0)
+    FROM sales
+    GROUP BY 1;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION moneta_rebuild_expenses_monthly() RETURNS void LANGUAGE plpgsql AS $$
+BEGIN
+    LOCK TABLE expenses IN SHARE ROW EXCLUSIVE MODE;
+    DELETE FROM expenses_monthly;
+    INSERT INTO expenses_monthly (month, slot, amount)
+    SELECT date_trunc('month', expense_date), 0, COALESCE(SUM(amount), 0)
+    FROM expenses
+    GROUP BY 1;
+END
+$$;
+
+-- A trigger with transition tables serves one event only
+DROP TRIGGER IF EXISTS sales_monthly_insert ON sales;
+DROP TRIGGER IF EXISTS sales_monthly_update ON sales;
+DROP TRIGGER IF EXISTS sales_monthly_delete ON sales;
+CREATE TRIGGER sales_monthly_insert AFTER INSERT ON sales
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_sales_monthly_apply();
+CREATE TRIGGER sales_monthly_update AFTER UPDATE ON sales
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_sales_monthly_apply();
+CREATE TRIGGER sales_monthly_delete AFTER DELETE ON sales
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_sales_monthly_apply();
+
+DROP TRIGGER IF EXISTS expenses_monthly_insert ON expenses;
+DROP TRIGGER IF EXISTS expenses_monthly_update ON expenses;
+DROP TRIGGER IF EXISTS expenses_monthly_delete ON expenses;
+CREATE TRIGGER expenses_monthly_insert AFTER INSERT ON expenses
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_expenses_monthly_apply();
+CREATE TRIGGER expenses_monthly_update AFTER UPDATE ON expenses
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_expenses_monthly_apply();
+CREATE TRIGGER expenses_monthly_delete AFTER DELETE ON expenses
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION moneta_expenses_monthly_apply();
+
+-- Backfill the existing history in the same transaction as the triggers
+SELECT moneta_rebuild_sales_monthly();
+SELECT moneta_rebuild_expenses_monthly();